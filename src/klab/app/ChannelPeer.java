@@ -0,0 +1,259 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import klab.serialization.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A neighbor connection served by an EventLoop instead of its own reader
+ * and writer threads. Frames are queued as for any Peer; the event loop
+ * reads incoming frames from the channel and writes queued frames with
+ * gathering writes once the channel can take them. Frames read from the
+ * channel are handled on a worker, one at a time and in the order they
+ * arrived, so slow handling never holds up the event loop; the loop stops
+ * reading from the channel while too many frames wait to be handled.
+ */
+public class ChannelPeer extends Peer {
+    /**
+     * most received frames waiting to be handled before the event loop
+     * stops reading from the channel
+     */
+    private static final int MAX_INBOX = 1024;
+    /**
+     * received frames waiting to be handled at which reading resumes
+     */
+    private static final int RESUME_INBOX = MAX_INBOX / 2;
+
+    /**
+     * the non-blocking channel connected to the neighbor
+     */
+    private final SocketChannel channel;
+    /**
+     * the event loop serving the channel
+     */
+    private final EventLoop loop;
+    /**
+     * handles the frames read from the channel
+     */
+    private final ReceiveRunner handler;
+    /**
+     * true while the event loop has been asked to write queued frames
+     */
+    private final AtomicBoolean writeRequested = new AtomicBoolean();
+    /**
+     * assembles frames from the bytes read from the channel
+     */
+    private final MessageDecoder decoder = new MessageDecoder();
+    /**
+     * frames read from the channel and not yet handled
+     */
+    private final Queue<Frame> inbox = new ConcurrentLinkedQueue<>();
+    /**
+     * number of frames in the inbox
+     */
+    private final AtomicInteger inboxSize = new AtomicInteger();
+    /**
+     * true while a worker is handling the inbox
+     */
+    private final AtomicBoolean handling = new AtomicBoolean();
+    /**
+     * true while the event loop has stopped reading from the channel
+     * because the inbox is full
+     */
+    private final AtomicBoolean readPaused = new AtomicBoolean();
+    /**
+     * buffers of frames partly written to the channel, or null if none
+     */
+    private ByteBuffer[] unwritten;
+    /**
+     * the channel's registration with the event loop's selector
+     */
+    private SelectionKey key;
+
+    /**
+     * constructor for the ChannelPeer class
+     * @param channel the non-blocking channel connected to the neighbor
+     * @param loop the event loop serving the channel
+     */
+    ChannelPeer(SocketChannel channel, EventLoop loop) {
+        super(channel.socket());
+        this.channel = channel;
+        this.loop = loop;
+        this.handler = new ReceiveRunner(this);
+    }
+
+    /**
+     * Ask the event loop to write the frame just queued
+     */
+    @Override
+    void queued() {
+        if (writeRequested.compareAndSet(false, true)) {
+            loop.requestWrite(this);
+        }
+    }
+
+    /**
+     * Get the channel connected to the neighbor
+     * @return the channel
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Queue a frame read from the channel to be handled on a worker
+     * @param frame the frame read from the channel
+     * @param workers the workers frames are handled on
+     * @return true if the inbox has room for more frames
+     */
+    boolean receive(Frame frame, Executor workers) {
+        inbox.add(frame);
+        int waiting = inboxSize.incrementAndGet();
+        if (handling.compareAndSet(false, true)) {
+            try {
+                workers.execute(this::handleInbox);
+            } catch (RejectedExecutionException e) {
+                //The node is shutting down
+                handling.set(false);
+            }
+        }
+        return waiting < MAX_INBOX;
+    }
+
+    /**
+     * Record that the event loop stopped reading from the channel
+     * @return true if reading should resume at once because the inbox
+     *         drained meanwhile
+     */
+    boolean pauseRead() {
+        readPaused.set(true);
+        return inboxSize.get() <= RESUME_INBOX
+                && readPaused.compareAndSet(true, false);
+    }
+
+    /**
+     * Check whether the event loop has stopped reading from the channel
+     * @return true if reading is paused
+     */
+    boolean isReadPaused() {
+        return readPaused.get();
+    }
+
+    /**
+     * Handle every frame in the inbox in order, asking the event loop to
+     * read again once enough of them have been handled
+     */
+    private void handleInbox() {
+        Logger logger = Logger.getLogger("Node.Log");
+        do {
+            Frame frame;
+            while ((frame = inbox.poll()) != null) {
+                if (inboxSize.decrementAndGet() <= RESUME_INBOX
+                        && readPaused.compareAndSet(true, false)) {
+                    loop.resumeRead(this);
+                }
+                try {
+                    handler.handle(frame);
+                } catch (BadAttributeValueException e) {
+                    logger.log(Level.WARNING,
+                            "Invalid message: " + e.getLocalizedMessage(), e);
+                } catch (IOException e) {
+                    logger.log(Level.INFO,
+                            "Closing node: " + e.getLocalizedMessage(), e);
+                    Node.removeConnection(this);
+                }
+            }
+            handling.set(false);
+            //A frame added after the last poll but before the flag was
+            //cleared would otherwise wait for the next one
+        } while (!inbox.isEmpty() && handling.compareAndSet(false, true));
+    }
+
+    /**
+     * Get the decoder assembling frames from the channel
+     * @return the frame decoder
+     */
+    MessageDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Get the buffers still to be written to the channel. Once the last
+     * batch is fully written, up to max more queued frames are taken as
+     * the next batch.
+     * @param max most frames to take
+     * @return buffers to write, or null if nothing is waiting
+     */
+    ByteBuffer[] nextWrite(int max) {
+        if (hasUnwritten()) {
+            return unwritten;
+        }
+        writeRequested.set(false);
+        List<Frame> batch = new ArrayList<>(max);
+        getOutbound().drainTo(batch, max);
+        if (batch.isEmpty()) {
+            unwritten = null;
+            return null;
+        }
+        Logger logger = Logger.getLogger("Node.Log");
+        ByteBuffer[] buffers = new ByteBuffer[batch.size() * 2];
+        int i = 0;
+        for (Frame frame : batch) {
+            ByteBuffer[] parts = frame.toBuffers();
+            buffers[i++] = parts[0];
+            buffers[i++] = parts[1];
+            logger.log(Level.INFO, "Sending: " + frame);
+        }
+        unwritten = buffers;
+        return buffers;
+    }
+
+    /**
+     * Check whether part of a batch is still waiting to be written
+     * @return true if buffers remain partly written
+     */
+    boolean hasUnwritten() {
+        if (unwritten != null) {
+            for (ByteBuffer buffer : unwritten) {
+                if (buffer.hasRemaining()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the channel's registration with the event loop's selector
+     * @return the selection key, or null if not yet registered
+     */
+    SelectionKey getKey() {
+        return key;
+    }
+
+    /**
+     * Set the channel's registration with the event loop's selector
+     * @param key the selection key
+     */
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+}
@@ -21,10 +21,6 @@ public class ConnectionRunner implements Runnable {
      * the server socket to listen with
      */
     private final ServerSocket serverSocket;
-    /**
-     * the directory path of the files
-     */
-    private final String directoryPath;
     /**
      * the node port for the node
      */
@@ -34,15 +30,6 @@ public class ConnectionRunner implements Runnable {
      */
     private Thread thread;
 
-
-    /**
-     * the download port of the node
-     */
-    private final int localDownloadPort;
-    /**
-     * the list of node connections made
-     */
-    private List<Socket> nodeConnections = new ArrayList<>();
     /**
      * to determine if the connectionRunner should stop
      */
@@ -51,18 +38,12 @@ public class ConnectionRunner implements Runnable {
     /**
      * the constructor for the connectionRunner instance
      * @param localNodePort the node connection port
-     * @param directoryPath the file directory path
-     * @param localDownloadPort the node download port
      * @throws IOException if an I/O error occurs
      */
-    public ConnectionRunner(int localNodePort,
-                            String directoryPath,
-                            int localDownloadPort) throws IOException {
+    public ConnectionRunner(int localNodePort) throws IOException {
         this.thread = new Thread(this);
         this.localNodePort = localNodePort;
         this.serverSocket = new ServerSocket(localNodePort);
-        this.directoryPath = directoryPath;
-        this.localDownloadPort = localDownloadPort;
     }
 
     /**
@@ -74,19 +55,14 @@ public class ConnectionRunner implements Runnable {
         while(!done){
             try {
                 Socket currSocket = serverSocket.accept();
-                synchronized (Node.connectionList){
-                    nodeConnections = new ArrayList<>(Node.connectionList);
-                }
                 logger.log(Level.INFO, "Adding " +
                         "new connection to connection list: "
                         + currSocket.getInetAddress() + ":"
                         + currSocket.getPort());
-                Node.connectionList.add(currSocket);
                 logger.log(Level.INFO, "Socket connection to : " +
                         currSocket.getInetAddress() + ":" +
                         currSocket.getPort());
-                Node.getCachedService().submit(new ReceiveRunner(currSocket,
-                        directoryPath, localDownloadPort));
+                Node.addConnection(currSocket);
             }catch (IOException e) {
                 logger.log(Level.INFO,
                         "Closing socket: " + e.getLocalizedMessage(), e);
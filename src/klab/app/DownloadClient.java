@@ -0,0 +1,437 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client side of the download protocol. Files are written to a ".part"
+ * file next to their destination and only moved into place once every
+ * byte has arrived, so an interrupted download is resumed from the last
+ * byte on disk the next time it is requested. A ".part.info" file beside
+ * it records the file ID and size the partial download belongs to; a
+ * partial download for another file, or one the server no longer agrees
+ * with, is thrown away and the file is downloaded from the start.
+ * Connections are opened in the keep-alive mode of the download protocol
+ * and pooled per host; hosts that do not acknowledge that mode get a new
+ * connection and a one-shot request for each download.
+ */
+public class DownloadClient {
+    /**
+     * A partial download that cannot be resumed
+     */
+    private static final class StalePartException extends IOException {
+        /**
+         * serialization version of the exception
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * constructor for the StalePartException class
+         * @param message why the partial download cannot be resumed
+         */
+        StalePartException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * suffix of a file that is still being downloaded
+     */
+    static final String PART_SUFFIX = ".part";
+    /**
+     * suffix of the file recording what a partial download belongs to
+     */
+    private static final String INFO_SUFFIX = ".info";
+    /**
+     * idle persistent connections to download hosts
+     */
+    static final DownloadPool POOL = new DownloadPool();
+    /**
+     * size of the buffer one-shot replies are copied into files with
+     */
+    private static final int RANGE_BUFFER_SIZE = 65536;
+
+    /**
+     * DownloadClient default constructor
+     */
+    private DownloadClient() {
+
+    }
+
+    /**
+     * Download a file, resuming a partial download of it if there is one.
+     * The request is sent on a pooled persistent connection to the host,
+     * which is handed back for the next download once the file arrives.
+     * Hosts that only take one-shot requests and do not understand ranges
+     * send the whole file, which then replaces the partial download.
+     * @param host the download host
+     * @param port the download port
+     * @param fileID the file ID as 8 hex digits
+     * @param target where to save the file
+     * @param transfer the download to record progress in
+     * @return the number of bytes received
+     * @throws IOException if the server reports an error, the connection
+     *                     fails, or the download ends early
+     */
+    public static long download(String host, int port, String fileID,
+                                Path target,
+                                DownloadManager.Transfer transfer)
+            throws IOException {
+        Logger logger = Logger.getLogger("Node.Log");
+        Path part = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+        Path info = part.resolveSibling(part.getFileName() + INFO_SUFFIX);
+        long expected = readInfo(info, fileID);
+        long offset = Files.exists(part) ? Files.size(part) : 0;
+        if (offset > 0 && (expected == Long.MIN_VALUE
+                || (expected >= 0 && offset > expected))) {
+            logger.log(Level.INFO, "Discarding partial download " + part
+                    + " that does not belong to file " + fileID);
+            discard(part, info);
+            offset = 0;
+        }
+        long received;
+        try {
+            received = receive(host, port, fileID, part, info, offset,
+                    expected, transfer);
+        } catch (StalePartException e) {
+            logger.log(Level.INFO, "Restarting download of " + target
+                    + ": " + e.getMessage());
+            discard(part, info);
+            received = receive(host, port, fileID, part, info, 0, -1,
+                    transfer);
+        }
+        if (Files.exists(target)) {
+            logger.log(Level.WARNING,
+                    "File already exists, overwriting contents");
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(info);
+        return received;
+    }
+
+    /**
+     * Download the rest of a file into its partial download, on a pooled
+     * persistent connection if the host keeps connections open
+     * @param host the download host
+     * @param port the download port
+     * @param fileID the file ID as 8 hex digits
+     * @param part the partial download
+     * @param info the file recording what the partial download belongs to
+     * @param offset the number of bytes already in the partial download
+     * @param expected the file size recorded for the partial download, or
+     *                 -1 if unknown
+     * @param transfer the download to record progress in
+     * @return the number of bytes received
+     * @throws StalePartException if the server rejects the resume or now
+     *                            has a different file size
+     * @throws IOException if the server reports an error, the connection
+     *                     fails, or the download ends early
+     */
+    private static long receive(String host, int port, String fileID,
+                                Path part, Path info, long offset,
+                                long expected,
+                                DownloadManager.Transfer transfer)
+            throws IOException {
+        DownloadConnection connection = POOL.acquire(host, port);
+        return connection == null
+                ? receiveOneShot(host, port, fileID, part, info, offset,
+                        expected, transfer)
+                : receive(connection, fileID, part, info, offset, expected,
+                        transfer);
+    }
+
+    /**
+     * Download the rest of a file into its partial download on a
+     * persistent connection, handing the connection back afterwards
+     * @param connection the connection to the host
+     * @param fileID the file ID as 8 hex digits
+     * @param part the partial download
+     * @param info the file recording what the partial download belongs to
+     * @param offset the number of bytes already in the partial download
+     * @param expected the file size recorded for the partial download, or
+     *                 -1 if unknown
+     * @param transfer the download to record progress in
+     * @return the number of bytes received
+     * @throws StalePartException if the server rejects the resume or now
+     *                            has a different file size
+     * @throws IOException if the server reports an error, the connection
+     *                     fails, or the download ends early
+     */
+    private static long receive(DownloadConnection connection,
+                                String fileID, Path part, Path info,
+                                long offset, long expected,
+                                DownloadManager.Transfer transfer)
+            throws IOException {
+        try {
+            connection.send(fileID + " " + offset);
+            long count;
+            try {
+                count = connection.readReply();
+            } catch (IOException e) {
+                throw offset > 0 && isErrorReply(e)
+                        ? new StalePartException(e.getMessage()) : e;
+            }
+            checkResume(offset, expected, connection.getFileSize());
+            writeInfo(info, fileID, connection.getFileSize());
+            if (offset > 0) {
+                Logger.getLogger("Node.Log").log(Level.INFO,
+                        "Resuming download of " + part + " at byte "
+                        + offset);
+            }
+            transfer.setSize(connection.getFileSize());
+            transfer.setReceived(offset);
+            try (FileChannel file = FileChannel.open(part,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                connection.readBody(file, offset, transfer::addReceived);
+                file.truncate(offset + count);
+            }
+            return count;
+        } finally {
+            POOL.release(connection);
+        }
+    }
+
+    /**
+     * Download the rest of a file into its partial download with a
+     * one-shot request on a new connection. A fresh download is asked for
+     * with the plain file ID every server understands.
+     * @param host the download host
+     * @param port the download port
+     * @param fileID the file ID as 8 hex digits
+     * @param part the partial download
+     * @param info the file recording what the partial download belongs to
+     * @param offset the number of bytes already in the partial download
+     * @param expected the file size recorded for the partial download, or
+     *                 -1 if unknown
+     * @param transfer the download to record progress in
+     * @return the number of bytes received
+     * @throws StalePartException if the server rejects the resume or now
+     *                            has a different file size
+     * @throws IOException if the server reports an error, the connection
+     *                     fails, or the download ends early
+     */
+    private static long receiveOneShot(String host, int port, String fileID,
+                                       Path part, Path info, long offset,
+                                       long expected,
+                                       DownloadManager.Transfer transfer)
+            throws IOException {
+        Logger logger = Logger.getLogger("Node.Log");
+        try (Socket socket = new Socket(host, port)) {
+            logger.log(Level.INFO, "Established " +
+                    "download server connection through socket: " +
+                    socket.getInetAddress() + ":" + socket.getPort());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            long size;
+            try {
+                size = request(socket, in,
+                        offset > 0 ? fileID + " " + offset : fileID);
+            } catch (IOException e) {
+                throw offset > 0 && isErrorReply(e)
+                        ? new StalePartException(e.getMessage()) : e;
+            }
+            if (size < 0) {
+                //The server ignored the offset and is sending everything
+                offset = 0;
+            }
+            checkResume(offset, expected, size);
+            writeInfo(info, fileID, size);
+            if (offset > 0) {
+                logger.log(Level.INFO, "Resuming download of "
+                        + part + " at byte " + offset);
+            }
+            transfer.setSize(size);
+            transfer.setReceived(offset);
+
+            long received = 0;
+            try (OutputStream file = Files.newOutputStream(part,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    offset > 0 ? StandardOpenOption.APPEND
+                               : StandardOpenOption.TRUNCATE_EXISTING)) {
+                byte[] buffer = new byte[RANGE_BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    file.write(buffer, 0, n);
+                    received += n;
+                    transfer.addReceived(n);
+                }
+            }
+            if (size >= 0 && offset + received < size) {
+                throw new IOException("Download interrupted after "
+                        + (offset + received) + " of " + size
+                        + " bytes; download again to resume");
+            }
+            return received;
+        }
+    }
+
+    /**
+     * Check that a partial download can be resumed at the size the server
+     * advertises now
+     * @param offset the number of bytes already in the partial download
+     * @param expected the file size recorded for the partial download, or
+     *                 -1 if unknown
+     * @param size the file size the server advertises, or -1 if unknown
+     * @throws StalePartException if the file size changed or the partial
+     *                            download is longer than the file
+     */
+    private static void checkResume(long offset, long expected, long size)
+            throws StalePartException {
+        if (offset == 0 || size < 0) {
+            return;
+        }
+        if (expected >= 0 && size != expected) {
+            throw new StalePartException("file size changed from "
+                    + expected + " to " + size + " bytes");
+        }
+        if (offset > size) {
+            throw new StalePartException("partial download is longer "
+                    + "than the " + size + " byte file");
+        }
+    }
+
+    /**
+     * Returns whether a request failed because the server answered it
+     * with an error rather than because the connection failed
+     * @param e the failure
+     * @return true if the server sent an error reply
+     */
+    private static boolean isErrorReply(IOException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("ERROR");
+    }
+
+    /**
+     * Read the file ID and size recorded for a partial download
+     * @param info the file recording what the partial download belongs to
+     * @param fileID the file ID being downloaded
+     * @return the recorded file size, -1 if the size is unknown, or
+     *         Long.MIN_VALUE if nothing is recorded for this file ID
+     */
+    private static long readInfo(Path info, String fileID) {
+        try {
+            String[] values = Files.readString(info,
+                    StandardCharsets.US_ASCII).trim().split(" ");
+            if (values.length == 2 && values[0].equalsIgnoreCase(fileID)) {
+                return Long.parseLong(values[1]);
+            }
+        } catch (IOException | NumberFormatException e) {
+            //Treated as a partial download of an unknown file
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Record the file ID and size a partial download belongs to
+     * @param info the file recording what the partial download belongs to
+     * @param fileID the file ID being downloaded
+     * @param size the file size the server advertised, or -1 if unknown
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeInfo(Path info, String fileID, long size)
+            throws IOException {
+        Files.writeString(info, fileID + " " + size + "\n",
+                StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Delete a partial download and its record
+     * @param part the partial download
+     * @param info the file recording what the partial download belongs to
+     * @throws IOException if a file cannot be deleted
+     */
+    private static void discard(Path part, Path info) throws IOException {
+        Files.deleteIfExists(part);
+        Files.deleteIfExists(info);
+    }
+
+    /**
+     * Download one range of a file into its place in a larger file with a
+     * one-shot request on a new connection
+     * @param host the download host
+     * @param port the download port
+     * @param fileID the file ID as 8 hex digits
+     * @param offset the first byte of the range
+     * @param length the number of bytes in the range
+     * @param size the size the host must advertise for the file
+     * @param file the file to write the range into at the same offset
+     * @throws IOException if the host reports an error or a different
+     *                     size, the connection fails, or the range ends
+     *                     early
+     */
+    public static void downloadRange(String host, int port, String fileID,
+                                     long offset, long length, long size,
+                                     FileChannel file) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            long advertised = request(socket, in,
+                    fileID + " " + offset + " " + length);
+            if (advertised != size) {
+                throw new IOException("Host " + host + ":" + port
+                        + " has a different file size: " + advertised);
+            }
+            byte[] buffer = new byte[RANGE_BUFFER_SIZE];
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                int n = in.read(buffer, 0,
+                        (int) Math.min(buffer.length, end - position));
+                if (n < 0) {
+                    throw new IOException("Range ended after "
+                            + (position - offset) + " of " + length
+                            + " bytes");
+                }
+                ByteBuffer piece = ByteBuffer.wrap(buffer, 0, n);
+                while (piece.hasRemaining()) {
+                    position += file.write(piece, position);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a one-shot download request line and read the status reply
+     * @param socket the download connection
+     * @param in the buffered input of the connection
+     * @param request the request line without its newline
+     * @return the file size advertised by the server, or -1 if the server
+     *         answered with a plain OK
+     * @throws IOException if the server reports an error or an I/O error
+     *                     occurs
+     */
+    private static long request(Socket socket, InputStream in,
+                                String request) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write((request + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        String status = DownloadRunner.readLine(in);
+        if (status == null || !status.startsWith("OK")) {
+            throw new IOException(status == null
+                    ? "No reply from download server" : status);
+        }
+        DownloadRunner.readLine(in);
+        if (status.length() == 2) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(status.substring(2).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad download reply: " + status);
+        }
+    }
+}
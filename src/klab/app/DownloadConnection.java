@@ -0,0 +1,322 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongConsumer;
+
+/**
+ * DownloadConnection class which holds a persistent connection to a
+ * download server. The server must acknowledge the keep-alive mode before
+ * the connection is used; servers that do not are left to the one-shot
+ * requests of DownloadClient. Requests are buffered until a reply is read, so several
+ * can be sent ahead and their replies read back in the same order. A
+ * connection that has read every reply it asked for, and has not failed,
+ * can be handed back to the DownloadPool for the next download.
+ */
+public class DownloadConnection implements Closeable {
+    /**
+     * size of the buffer replies are copied into files with
+     */
+    private static final int BUFFER_SIZE = 65536;
+    /**
+     * milliseconds to wait for the server to acknowledge the keep-alive
+     * mode, set with -Dklab.download.negotiate
+     */
+    private static final int NEGOTIATE_MS =
+            Math.max(1, Integer.getInteger("klab.download.negotiate", 2000));
+
+    /**
+     * the download host
+     */
+    private final String host;
+    /**
+     * the download port
+     */
+    private final int port;
+    /**
+     * the connection to the host
+     */
+    private final Socket socket;
+    /**
+     * the buffered input of the connection
+     */
+    private final InputStream in;
+    /**
+     * the buffered output of the connection
+     */
+    private final OutputStream out;
+    /**
+     * buffer reply bodies are copied through
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * requests sent whose replies have not been read
+     */
+    private int outstanding = 0;
+    /**
+     * bytes of the current reply body not yet read
+     */
+    private long remaining = 0;
+    /**
+     * the file size given in the last reply
+     */
+    private long fileSize = -1;
+    /**
+     * set once the connection can no longer be framed
+     */
+    private boolean failed = false;
+    /**
+     * when the connection was last handed back to the pool, in nanoseconds
+     */
+    private long idleSince;
+
+    /**
+     * constructor for the DownloadConnection class
+     * @param host the download host
+     * @param port the download port
+     * @throws IOException if the connection cannot be opened
+     */
+    private DownloadConnection(String host, int port) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.socket = new Socket(host, port);
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * Open a persistent connection to a download server
+     * @param host the download host
+     * @param port the download port
+     * @return the connection, or null if the server did not acknowledge
+     *         the keep-alive mode and only takes one-shot requests
+     * @throws IOException if the connection cannot be opened
+     */
+    static DownloadConnection open(String host, int port)
+            throws IOException {
+        DownloadConnection connection = new DownloadConnection(host, port);
+        try {
+            connection.out.write((DownloadRunner.PERSIST_REQUEST + "\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            connection.out.flush();
+            connection.socket.setSoTimeout(NEGOTIATE_MS);
+            String reply = DownloadRunner.readLine(connection.in);
+            if (DownloadRunner.PERSIST_ACK.equals(reply)) {
+                connection.socket.setSoTimeout(0);
+                return connection;
+            }
+        } catch (SocketTimeoutException e) {
+            //Older servers wait for a longer request and never answer
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        connection.close();
+        return null;
+    }
+
+    /**
+     * Queue a request to be sent with the next flush or reply read
+     * @param request the request line without its newline
+     * @throws IOException if an I/O error occurs
+     */
+    void send(String request) throws IOException {
+        try {
+            out.write((request + "\n").getBytes(StandardCharsets.US_ASCII));
+            outstanding++;
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Send every queued request
+     * @throws IOException if an I/O error occurs
+     */
+    void flush() throws IOException {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Read the status line of the next reply. An error reply leaves the
+     * connection usable for the replies after it.
+     * @return the number of bytes in the reply body
+     * @throws IOException if the server reports an error, the reply is not
+     *                     understood, or an I/O error occurs
+     */
+    long readReply() throws IOException {
+        if (remaining > 0 || outstanding == 0) {
+            throw new IllegalStateException("No reply is due");
+        }
+        String status;
+        try {
+            flush();
+            status = DownloadRunner.readLine(in);
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+        if (status == null) {
+            failed = true;
+            throw new EOFException("Download server " + this
+                    + " closed the connection");
+        }
+        outstanding--;
+        if (status.startsWith("ERROR")) {
+            throw new IOException(status);
+        }
+        String[] values = status.split(" ");
+        try {
+            if (values.length != 3 || !values[0].equals("OK")) {
+                throw new NumberFormatException(status);
+            }
+            remaining = Long.parseLong(values[1]);
+            fileSize = Long.parseLong(values[2]);
+        } catch (NumberFormatException e) {
+            failed = true;
+            throw new IOException("Bad download reply: " + status);
+        }
+        return remaining;
+    }
+
+    /**
+     * Get the file size given in the last reply
+     * @return the file size in bytes
+     */
+    long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Copy the body of the current reply into a file
+     * @param file the file to write into
+     * @param position where in the file the body starts
+     * @param progress told the number of bytes in each piece written
+     * @throws IOException if the body ends early or an I/O error occurs
+     */
+    void readBody(FileChannel file, long position, LongConsumer progress)
+            throws IOException {
+        while (remaining > 0) {
+            int n;
+            try {
+                n = in.read(buffer, 0,
+                        (int) Math.min(buffer.length, remaining));
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            if (n < 0) {
+                failed = true;
+                throw new EOFException("Reply from " + this + " ended with "
+                        + remaining + " bytes missing");
+            }
+            remaining -= n;
+            ByteBuffer piece = ByteBuffer.wrap(buffer, 0, n);
+            while (piece.hasRemaining()) {
+                position += file.write(piece, position);
+            }
+            progress.accept(n);
+        }
+    }
+
+    /**
+     * Returns whether the connection can be handed to the next download:
+     * it has not failed and every reply it asked for has been read
+     * @return true if the connection can be reused
+     */
+    boolean isReusable() {
+        return !failed && outstanding == 0 && remaining == 0
+                && !socket.isClosed();
+    }
+
+    /**
+     * Returns whether the server is still holding the idle connection
+     * open, waiting at most a millisecond to find out
+     * @return true if the connection is still open
+     */
+    boolean isOpen() {
+        try {
+            socket.setSoTimeout(1);
+            in.read();
+            //Nothing is due on an idle connection, so either data or the
+            //end of the stream means it cannot be used again
+            return false;
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                socket.setSoTimeout(0);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+    }
+
+    /**
+     * Record when the connection was handed back to the pool
+     */
+    void markIdle() {
+        idleSince = System.nanoTime();
+    }
+
+    /**
+     * Get how long the connection has been idle
+     * @return milliseconds since the connection was handed back
+     */
+    long getIdleMillis() {
+        return (System.nanoTime() - idleSince) / 1_000_000;
+    }
+
+    /**
+     * Get the key of the host the connection is to
+     * @return the host and port
+     */
+    String getKey() {
+        return host + ":" + port;
+    }
+
+    /**
+     * Close the connection
+     */
+    @Override
+    public void close() {
+        failed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //The connection is being dropped either way
+        }
+    }
+
+    /**
+     * Returns the host and port of the connection
+     * @return String representation
+     */
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * DownloadManager class which runs downloads in the background so the
+ * console stays free. At most a fixed number of downloads transfer at
+ * once; the rest wait in submission order. Every download's progress can
+ * be listed, and a notice is printed when each one finishes.
+ */
+public class DownloadManager {
+    /**
+     * The states a download moves through
+     */
+    public enum State {
+        /**
+         * waiting for a free download slot
+         */
+        QUEUED,
+        /**
+         * transferring
+         */
+        ACTIVE,
+        /**
+         * finished with every byte saved
+         */
+        DONE,
+        /**
+         * stopped by an error
+         */
+        FAILED
+    }
+
+    /**
+     * One download and its progress
+     */
+    public static final class Transfer {
+        /**
+         * the number of the download
+         */
+        private final int id;
+        /**
+         * the name the file is saved as
+         */
+        private final Path target;
+        /**
+         * where the file is downloaded from
+         */
+        private final String from;
+        /**
+         * bytes received so far
+         */
+        private final AtomicLong received = new AtomicLong();
+        /**
+         * the size of the file, or -1 until it is known
+         */
+        private volatile long size = -1;
+        /**
+         * the state of the download
+         */
+        private volatile State state = State.QUEUED;
+        /**
+         * why the download failed, or null
+         */
+        private volatile String error;
+
+        /**
+         * constructor for the Transfer class
+         * @param id the number of the download
+         * @param target where the file is saved
+         * @param from where the file is downloaded from
+         */
+        Transfer(int id, Path target, String from) {
+            this.id = id;
+            this.target = target;
+            this.from = from;
+        }
+
+        /**
+         * Record the size of the file once it is known
+         * @param size the file size in bytes
+         */
+        void setSize(long size) {
+            this.size = size;
+        }
+
+        /**
+         * Record bytes received
+         * @param count the number of bytes received
+         */
+        void addReceived(long count) {
+            received.addAndGet(count);
+        }
+
+        /**
+         * Record bytes that are already on disk from an earlier attempt
+         * @param count the number of bytes already saved
+         */
+        void setReceived(long count) {
+            received.set(count);
+        }
+
+        /**
+         * Get the number of the download
+         * @return the download number
+         */
+        public int getID() {
+            return id;
+        }
+
+        /**
+         * Get the state of the download
+         * @return the download state
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Returns the download's number, file, state and progress
+         * @return String representation
+         */
+        @Override
+        public String toString() {
+            StringBuilder formatted = new StringBuilder();
+            formatted.append('#').append(id).append(' ')
+                    .append(target.getFileName()).append(" from ")
+                    .append(from).append(": ").append(state).append(' ')
+                    .append(received.get());
+            if (size >= 0) {
+                formatted.append('/').append(size);
+            }
+            formatted.append(" bytes");
+            if (size > 0) {
+                formatted.append(" (").append(received.get() * 100 / size)
+                        .append("%)");
+            }
+            if (error != null) {
+                formatted.append(": ").append(error);
+            }
+            return formatted.toString();
+        }
+    }
+
+    /**
+     * the most downloads transferring at once, set with -Dklab.downloads
+     */
+    static final int MAX_ACTIVE =
+            Math.max(1, Integer.getInteger("klab.downloads", 4));
+
+    /**
+     * every download submitted, in submission order
+     */
+    private final Map<Integer, Transfer> transfers =
+            new ConcurrentSkipListMap<>();
+    /**
+     * the number given to the next download
+     */
+    private final AtomicInteger nextID = new AtomicInteger(1);
+    /**
+     * free download slots; queued downloads wait here in order
+     */
+    private final Semaphore slots = new Semaphore(MAX_ACTIVE, true);
+    /**
+     * runs the downloads
+     */
+    private final ExecutorService service = Node.newWorkerService(0);
+
+    /**
+     * Queue a download from one host
+     * @param host the download host
+     * @param port the download port
+     * @param fileID the file ID as 8 hex digits
+     * @param target where to save the file
+     * @return the queued download, or null if the file is already being
+     *         downloaded
+     */
+    public Transfer download(String host, int port, String fileID,
+                             Path target) {
+        return submit(target, host + ":" + port, transfer ->
+                DownloadClient.download(host, port, fileID, target,
+                        transfer));
+    }
+
+    /**
+     * Queue a download from every host advertising a file
+     * @param sources the hosts advertising the file with the same size
+     * @param target where to save the file
+     * @return the queued download, or null if the file is already being
+     *         downloaded
+     */
+    public Transfer swarm(List<SwarmDownload.Source> sources, Path target) {
+        return submit(target, sources.size() + " sources", transfer ->
+                new SwarmDownload(sources, target).download(transfer));
+    }
+
+    /**
+     * Get every download submitted
+     * @return the downloads in submission order
+     */
+    public List<Transfer> getTransfers() {
+        return new ArrayList<>(transfers.values());
+    }
+
+    /**
+     * Stop every download and close idle download connections
+     */
+    public void close() {
+        service.shutdownNow();
+        DownloadClient.POOL.close();
+    }
+
+    /**
+     * Queue a download unless the same file is already queued or active
+     * @param target where to save the file
+     * @param from where the file is downloaded from
+     * @param job the work of the download
+     * @return the queued download, or null if the file is already being
+     *         downloaded
+     */
+    private synchronized Transfer submit(Path target, String from,
+                                         Job job) {
+        for (Transfer t : transfers.values()) {
+            if (t.target.equals(target) && (t.state == State.QUEUED
+                    || t.state == State.ACTIVE)) {
+                return null;
+            }
+        }
+        Transfer transfer = new Transfer(nextID.getAndIncrement(), target,
+                from);
+        transfers.put(transfer.id, transfer);
+        service.submit((Callable<Void>) () -> {
+            run(transfer, job);
+            return null;
+        });
+        return transfer;
+    }
+
+    /**
+     * Run a download once a slot is free and report how it finished
+     * @param transfer the download
+     * @param job the work of the download
+     * @throws InterruptedException if the manager is closed while waiting
+     */
+    private void run(Transfer transfer, Job job)
+            throws InterruptedException {
+        Logger logger = Logger.getLogger("Node.Log");
+        slots.acquire();
+        try {
+            transfer.state = State.ACTIVE;
+            job.run(transfer);
+            transfer.state = State.DONE;
+            logger.log(Level.INFO, "Finished download " + transfer);
+            System.out.println("Download finished: " + transfer);
+        } catch (Exception e) {
+            transfer.error = e.getMessage();
+            transfer.state = State.FAILED;
+            logger.log(Level.INFO, "Download failed " + transfer, e);
+            System.err.println("Download failed: " + transfer);
+        } finally {
+            slots.release();
+        }
+    }
+
+    /**
+     * The work of one download
+     */
+    @FunctionalInterface
+    private interface Job {
+        /**
+         * Transfer the file, recording progress in the transfer
+         * @param transfer the download to record progress in
+         * @throws Exception if the download fails
+         */
+        void run(Transfer transfer) throws Exception;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * DownloadPool class which keeps idle persistent download connections for
+ * each host so later downloads from the same host skip connection setup.
+ * Connections idle longer than the keep-alive time are closed rather than
+ * reused, since the server drops them after its own idle timeout. Hosts
+ * that do not acknowledge the keep-alive mode are remembered, so they are
+ * only asked once and get one-shot requests from then on.
+ */
+public class DownloadPool {
+    /**
+     * most idle connections kept for one host, set with
+     * -Dklab.download.pool
+     */
+    private static final int MAX_IDLE_PER_HOST =
+            Math.max(1, Integer.getInteger("klab.download.pool", 2));
+    /**
+     * milliseconds an idle connection is kept, set with
+     * -Dklab.download.keepalive
+     */
+    private static final long KEEP_ALIVE_MS =
+            Math.max(1, Long.getLong("klab.download.keepalive", 5000));
+
+    /**
+     * idle connections by host and port, most recently used first
+     */
+    private final Map<String, Deque<DownloadConnection>> idle =
+            new ConcurrentHashMap<>();
+    /**
+     * hosts and ports that only take one-shot requests
+     */
+    private final Set<String> oneShot = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Get a connection to a host, reusing an idle one if there is one
+     * @param host the download host
+     * @param port the download port
+     * @return a persistent connection to the host, or null if the host only
+     *         takes one-shot requests
+     * @throws IOException if a new connection cannot be opened
+     */
+    public DownloadConnection acquire(String host, int port)
+            throws IOException {
+        String key = host + ":" + port;
+        if (oneShot.contains(key)) {
+            return null;
+        }
+        Deque<DownloadConnection> connections = idle.get(key);
+        if (connections != null) {
+            DownloadConnection connection;
+            while ((connection = connections.pollFirst()) != null) {
+                if (connection.getIdleMillis() < KEEP_ALIVE_MS
+                        && connection.isOpen()) {
+                    return connection;
+                }
+                connection.close();
+            }
+        }
+        DownloadConnection connection = DownloadConnection.open(host, port);
+        if (connection == null) {
+            oneShot.add(key);
+            Logger.getLogger("Node.Log").log(Level.INFO, "Download host "
+                    + key + " does not keep connections open");
+            return null;
+        }
+        Logger.getLogger("Node.Log").log(Level.INFO,
+                "Opened persistent download connection to " + connection);
+        return connection;
+    }
+
+    /**
+     * Hand a connection back once a download is done with it. Connections
+     * that failed or still have replies due are closed instead.
+     * @param connection the connection
+     */
+    public void release(DownloadConnection connection) {
+        if (!connection.isReusable()) {
+            connection.close();
+            return;
+        }
+        Deque<DownloadConnection> connections = idle.computeIfAbsent(
+                connection.getKey(), k -> new ConcurrentLinkedDeque<>());
+        if (connections.size() >= MAX_IDLE_PER_HOST) {
+            connection.close();
+            return;
+        }
+        connection.markIdle();
+        connections.offerFirst(connection);
+    }
+
+    /**
+     * Close every idle connection
+     */
+    public void close() {
+        for (Deque<DownloadConnection> connections : idle.values()) {
+            DownloadConnection connection;
+            while ((connection = connections.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -6,14 +6,19 @@
 package klab.app;
 
 import klab.app.Node;
-import klab.serialization.MessageInput;
 import klab.serialization.MessageOutput;
 
-import java.io.FileInputStream;
+import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -26,30 +31,46 @@ import java.util.logging.Logger;
 /**
  * The downloadRunner class which implements the ability
  * to receive file IDs after an established connection
- * and send out the file contents if it exists
+ * and send out the file contents if it exists.
+ * A request is a line holding the 8 hex digit file ID, optionally followed
+ * by a start offset and a length in bytes. Plain requests are answered
+ * with "OK\n\n" and the whole file; requests with an offset are answered
+ * with "OK &lt;file size&gt;\n\n" and only the requested range, so an
+ * interrupted download can be resumed.
+ * A connection whose first line is "PERSIST" is acknowledged with
+ * "PERSIST OK" and stays open for any number of requests, which may be
+ * sent before earlier replies arrive. Each is
+ * answered in order with "OK &lt;count&gt; &lt;file size&gt;\n" followed by
+ * exactly count bytes, or with a one line error. Between requests such a
+ * connection waits in IdleDownloads rather than holding a worker.
+ * Popular small files are sent from the node's FileCache when it is on.
  */
 public class DownloadRunner implements Runnable{
     /**
-     * The length of the message sent by downloading
+     * the length of the file ID without the delimiter
      */
-    private static final int MESSAGE_lENGTH = 9;
+    private static final int FILE_ID_LENGTH = 8;
     /**
-     * the length of the message without the delimiter
+     * the base of hex digits
      */
-    private static final int FILE_ID_LENGTH = 8;
+    private static final int BASE_HEX_VALUE = 16;
     /**
-     * the file ID length compressed into hex values
+     * the longest request line accepted
      */
-    private static final int COMPRESSED_FILE_ID_SIZE = 4;
+    private static final int MAX_LINE_LENGTH = 128;
     /**
-     * the value used to help calculate the compressed file ID
+     * most values in a request line: file ID, offset and length
      */
-    private static final int FILE_ID_COMPRESS_DIVISOR = 2;
+    private static final int MAX_REQUEST_VALUES = 3;
     /**
-     * the base of hex digits
+     * the first line of a connection that stays open for more requests
      */
-    private static final int BASE_HEX_VALUE = 16;
-
+    static final String PERSIST_REQUEST = "PERSIST";
+    /**
+     * the reply to PERSIST_REQUEST, which tells the client that later
+     * replies are framed for a persistent connection
+     */
+    static final String PERSIST_ACK = "PERSIST OK";
     /**
      * the socket for the current download connection
      */
@@ -58,15 +79,33 @@ public class DownloadRunner implements Runnable{
      * the directory path to look through when trying to download
      */
     private final String directoryPath;
+    /**
+     * where the connection waits between requests once it is persistent,
+     * or null to wait on the worker
+     */
+    private final IdleDownloads idleDownloads;
+    /**
+     * the input of the connection, kept while the connection waits for its
+     * next request; null until the connection is first served
+     */
+    private InputStream downloadInStream;
+    /**
+     * the output of the connection
+     */
+    private MessageOutput downloadOutStream;
 
     /**
      * constructor for the DownloadRunner class
      * @param socket the socket to download with
      * @param directoryPath the directory path to find the files to use
+     * @param idleDownloads where a persistent connection waits between
+     *                      requests, or null to wait on the worker
      */
-    public DownloadRunner(Socket socket, String directoryPath) {
+    public DownloadRunner(Socket socket, String directoryPath,
+                          IdleDownloads idleDownloads) {
         this.currConnection = socket;
         this.directoryPath = directoryPath;
+        this.idleDownloads = idleDownloads;
     }
 
     /**
@@ -76,57 +115,267 @@ public class DownloadRunner implements Runnable{
      */
     public void run() {
         Logger logger = Logger.getLogger("Node.Log");
+        boolean parked = false;
         try{
-            MessageInput downloadInStream =
-                    new MessageInput(currConnection.getInputStream());
-            MessageOutput downloadOutStream =
-                    new MessageOutput(currConnection.getOutputStream());
+            //A connection handed back by IdleDownloads has a request waiting
+            boolean resumed = downloadInStream != null;
+            if (!resumed) {
+                downloadInStream = new BufferedInputStream(
+                        currConnection.getInputStream());
+                downloadOutStream =
+                        new MessageOutput(currConnection.getOutputStream());
+                String request = readLine(downloadInStream);
+                if (!PERSIST_REQUEST.equals(request)) {
+                    serve(request, downloadOutStream, false);
+                    return;
+                }
+                logger.log(Level.INFO, "Keeping download connection open: "
+                        + currConnection.getRemoteSocketAddress());
+                sendStatus(downloadOutStream, PERSIST_ACK + "\n");
+                currConnection.setSoTimeout(IdleDownloads.IDLE_TIMEOUT_MS);
+            }
+            if (idleDownloads == null || getChannel() == null) {
+                String request;
+                while ((request = readLine(downloadInStream)) != null) {
+                    serve(request, downloadOutStream, true);
+                }
+                return;
+            }
+            //Answer every request already received, then give the worker
+            //back until the next one arrives
+            while (resumed || downloadInStream.available() > 0) {
+                resumed = false;
+                String request = readLine(downloadInStream);
+                if (request == null) {
+                    return;
+                }
+                serve(request, downloadOutStream, true);
+            }
+            parked = idleDownloads.park(this);
+        }catch (IOException e) {
+            logger.log(Level.INFO,
+                    "Socket closed: " + e.getLocalizedMessage(), e);
+        }finally {
+            if (!parked) {
+                close();
+            }
+        }
+    }
 
-            byte[] fileID = downloadInStream.readNBytes(MESSAGE_lENGTH);
-            fileID = Arrays.copyOf(fileID,FILE_ID_LENGTH);
-            String tempString = new String(fileID);
+    /**
+     * Get the channel of the connection
+     * @return the channel, or null if the socket was not accepted from a
+     *         ServerSocketChannel
+     */
+    SocketChannel getChannel() {
+        return currConnection.getChannel();
+    }
 
-            byte[] compactedFileID = new byte[COMPRESSED_FILE_ID_SIZE];
-            for (int i = 0; i < fileID.length; i += 2) {
-                String hexByte = tempString.
-                        substring(i, i + FILE_ID_COMPRESS_DIVISOR);
-                compactedFileID[i / FILE_ID_COMPRESS_DIVISOR] =
-                        (byte) Integer.parseInt(hexByte, BASE_HEX_VALUE);
-            }
+    /**
+     * Close the connection
+     */
+    void close() {
+        try {
+            this.currConnection.close();
+        } catch (IOException e) {
+            Logger.getLogger("Node.Log").log(Level.FINE,
+                    "Error closing download socket", e);
+        }
+    }
 
-            logger.log(Level.INFO,
-                    "Received download request with fileID: "
-                            + new String(fileID));
-            long result = 0;
-            for (int i = 0; i < compactedFileID.length; i++) {
-                result = (result << 8) | (compactedFileID[i] & 0xFF);
+    /**
+     * Returns the remote address of the connection
+     * @return the remote address
+     */
+    @Override
+    public String toString() {
+        return String.valueOf(currConnection.getRemoteSocketAddress());
+    }
+
+    /**
+     * Answer one download request
+     * @param request the request line, or null if the connection closed
+     *                before sending one
+     * @param downloadOutStream the output to send error messages with
+     * @param persistent true if the connection stays open after the reply,
+     *                   which frames every reply so the next one can be
+     *                   found
+     * @throws IOException if an I/O error occurs, or the file shrinks
+     *                     while it is sent on a persistent connection
+     */
+    private void serve(String request, MessageOutput downloadOutStream,
+                       boolean persistent) throws IOException {
+        Logger logger = Logger.getLogger("Node.Log");
+        logger.log(Level.INFO, "Received download request: " + request);
+        String end = persistent ? "\n" : "";
+        String[] values = request == null ? new String[0]
+                                          : request.split(" ");
+        long result = values.length == 0 ? -1 : parseFileID(values[0]);
+        long offset = 0;
+        long length = Long.MAX_VALUE;
+        try {
+            if (values.length > 1) {
+                offset = Long.parseLong(values[1]);
             }
+            if (values.length > 2) {
+                length = Long.parseLong(values[2]);
+            }
+        } catch (NumberFormatException e) {
+            offset = -1;
+        }
+        if (result < 0 || values.length > MAX_REQUEST_VALUES
+                || offset < 0 || length < 0) {
+            sendStatus(downloadOutStream, "ERROR Bad request" + end);
+            return;
+        }
 
-            if(Node.getFileMapping().containsValue(result)){
-                logger.log(Level.INFO, "FileID: " + new String(fileID) +
-                        " does exist.  Attempting to send file contents.");
-                Path temp = Paths.
-                        get(directoryPath+"\\"+
-                                Node.getFileNameFromMap(result));
-                FileInputStream fi = new FileInputStream(temp.toFile());
-                currConnection.getOutputStream().
-                        write("OK\n\n".getBytes(StandardCharsets.US_ASCII));
-                fi.transferTo(currConnection.getOutputStream());
+        String fileName = Node.getFileIds().getName(result);
+        if(fileName == null){
+            logger.log(Level.INFO, "FileID: " + values[0] +
+                    " does not exist.  Attempting to send error message");
+            sendStatus(downloadOutStream,
+                    "ERROR ID (" + values[0] + ") not found" + end);
+            return;
+        }
+        logger.log(Level.INFO, "FileID: " + values[0] +
+                " does exist.  Attempting to send file contents.");
+        Path temp = Paths.get(directoryPath, fileName);
+        FileCache cache = Node.getFileCache();
+        ByteBuffer cached = cache.get(fileName, temp);
+        FileChannel file = cached == null ? FileChannel.open(temp) : null;
+        try {
+            long size = cached != null ? cached.remaining() : file.size();
+            if (offset > size) {
+                sendStatus(downloadOutStream,
+                        "ERROR Bad range (" + offset + ")" + end);
+                return;
+            }
+            long count = Math.min(length, size - offset);
+            String ok;
+            if (persistent) {
+                ok = "OK " + count + " " + size + "\n";
+            }
+            else {
+                ok = values.length > 1 ? "OK " + size + "\n\n" : "OK\n\n";
+            }
+            WritableByteChannel out = getOutputChannel();
+            ByteBuffer header = ByteBuffer.wrap(
+                    ok.getBytes(StandardCharsets.US_ASCII));
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            long sent;
+            if (cached != null) {
+                cached.position((int) offset).limit((int) (offset + count));
+                while (cached.hasRemaining()) {
+                    out.write(cached);
+                }
+                sent = count;
+            }
+            else {
+                sent = sendFile(file, out, offset, count);
+            }
+            if (persistent && sent < count) {
+                //The reply promised more bytes than are left to send
+                throw new IOException("File " + fileName
+                        + " shrank while it was being sent");
             }
+            if (file != null) {
+                cache.offer(fileName, temp, file);
+            }
+        } finally {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
 
-            else if(!Node.getFileMapping().containsValue(result)){
-                logger.log(Level.INFO, "FileID: " + new String(fileID) +
-                        " does not exist.  Attempting to send error message");
-                downloadOutStream.
-                        writeBytes(("ERROR ID (" + new String(fileID) +
-                        ") not found").getBytes(StandardCharsets.US_ASCII));
-                downloadOutStream.flush();
+    /**
+     * Read one line of the download protocol
+     * @param in the stream to read from
+     * @return the line without its newline, the text up to the end of
+     *         the stream if it has no newline, or null if the stream ended
+     *         before any text
+     * @throws IOException if the line is too long or an I/O error occurs
+     */
+    static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new IOException("Download protocol line too long");
             }
+            line.append((char) b);
+        }
+        return b == -1 && line.isEmpty() ? null : line.toString();
+    }
 
-            this.currConnection.close();
-        }catch (IOException e) {
-            logger.log(Level.INFO,
-                    "Socket closed: " + e.getLocalizedMessage(), e);
+    /**
+     * Parse a file ID written as 8 hex digits
+     * @param fileID the written file ID
+     * @return the file ID, or -1 if it is not 8 hex digits
+     */
+    private static long parseFileID(String fileID) {
+        if (fileID.length() != FILE_ID_LENGTH) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileID, BASE_HEX_VALUE);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Send an error message or acknowledgement to the connection
+     * @param out the output to send the message with
+     * @param message the message
+     * @throws IOException if an I/O error occurs
+     */
+    private static void sendStatus(MessageOutput out, String message)
+            throws IOException {
+        out.writeBytes(message.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * Get a channel writing to the connection. Connections accepted from a
+     * ServerSocketChannel write to their own SocketChannel, which lets file
+     * contents be sent by the kernel without a copy through the heap;
+     * other sockets are wrapped in a channel over their output stream.
+     * @return a channel writing to the connection
+     * @throws IOException if the output stream cannot be opened
+     */
+    private WritableByteChannel getOutputChannel() throws IOException {
+        if (getChannel() != null) {
+            return getChannel();
+        }
+        return Channels.newChannel(currConnection.getOutputStream());
+    }
+
+    /**
+     * Send part of a file with FileChannel.transferTo
+     * @param file the file to send
+     * @param out the channel to send the file to
+     * @param offset the first byte to send
+     * @param count the number of bytes to send
+     * @return the number of bytes sent, fewer than count if the file was
+     *         truncated
+     * @throws IOException if an I/O error occurs
+     */
+    private static long sendFile(FileChannel file, WritableByteChannel out,
+                                 long offset, long count)
+            throws IOException {
+        long position = offset;
+        long end = offset + count;
+        while (position < end) {
+            long sent = file.transferTo(position, end - position, out);
+            if (sent <= 0) {
+                //The file was truncated while it was being sent
+                break;
+            }
+            position += sent;
         }
+        return position - offset;
     }
 }
@@ -6,10 +6,10 @@
 package klab.app;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,13 +22,15 @@ import java.util.logging.Logger;
  */
 public class DownloadService implements Runnable{
     /**
-     * the max number of threads that can exist at the same time
+     * the max number of platform threads that can exist at the same time
      */
     private static final int THREAD_POOL_SIZE = 4;
     /**
-     * the serverSocket instance to receive download connections
+     * the server channel to receive download connections; accepted
+     * connections keep their SocketChannel so files can be sent with
+     * FileChannel.transferTo
      */
-    private final ServerSocket serverSocket;
+    private final ServerSocketChannel serverSocket;
     /**
      * the thread instance that is used as a back reference for the main
      * node to use to close the connections successfully
@@ -52,6 +54,11 @@ public class DownloadService implements Runnable{
      * of downloading the actual file contents
      */
     private final ExecutorService executorService;
+    /**
+     * watches persistent connections between requests so they do not
+     * hold a download worker while idle
+     */
+    private final IdleDownloads idleDownloads;
 
     /**
      * The constructor for the download service
@@ -64,10 +71,12 @@ public class DownloadService implements Runnable{
     public DownloadService(int downloadPort, String directoryPath)
                                                 throws IOException {
         this.thread = new Thread(this);
-        this.serverSocket = new ServerSocket(downloadPort);
+        this.serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(downloadPort));
         this.downloadPort = downloadPort;
         this.directoryPath = directoryPath;
-        this.executorService = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        this.executorService = Node.newWorkerService(THREAD_POOL_SIZE);
+        this.idleDownloads = new IdleDownloads(executorService);
     }
 
     /**
@@ -78,11 +87,12 @@ public class DownloadService implements Runnable{
         Logger logger = Logger.getLogger("Node.Log");
         while(!done){
             try{
-                Socket currConnection = serverSocket.accept();
+                Socket currConnection = serverSocket.accept().socket();
                 logger.log(Level.INFO, "Socket download connection to : "
                                             + currConnection.getInetAddress());
                 this.executorService.submit
-                        (new DownloadRunner(currConnection,directoryPath));
+                        (new DownloadRunner(currConnection, directoryPath,
+                                idleDownloads));
 
             } catch (IOException e) {
                 logger.log(Level.INFO,
@@ -96,6 +106,7 @@ public class DownloadService implements Runnable{
      * start function for this thread
      */
     public void start(){
+        this.idleDownloads.start();
         this.thread.start();
     }
     /**
@@ -107,5 +118,6 @@ public class DownloadService implements Runnable{
         done = true;
         serverSocket.close();
         executorService.shutdownNow();
+        idleDownloads.close();
     }
 }
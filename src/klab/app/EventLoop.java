@@ -0,0 +1,335 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import klab.serialization.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * EventLoop class which serves many neighbor connections from one thread.
+ * A Selector reports which channels can be read or written; incoming
+ * bytes are fed to each peer's MessageDecoder as they arrive, whole frames
+ * are handed to the transport's workers to be handled, and queued frames
+ * are written with gathering writes.
+ */
+public class EventLoop implements Runnable {
+    /**
+     * most queued frames written to a channel in one gathering write
+     */
+    private static final int MAX_WRITE_BATCH = 64;
+    /**
+     * size of the buffer each read from a channel goes into
+     */
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    /**
+     * the selector reporting ready channels
+     */
+    private final Selector selector;
+    /**
+     * work handed to the loop by other threads, run on the loop thread
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /**
+     * buffer shared by every channel of the loop for reads; each peer's
+     * decoder keeps its own partial frame, so nothing is left here
+     * between reads
+     */
+    private final ByteBuffer readBuffer =
+            ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    /**
+     * the workers received frames are handled on
+     */
+    private final Executor workers;
+    /**
+     * the thread running the loop
+     */
+    private final Thread thread;
+    /**
+     * to determine if the loop should stop
+     */
+    private volatile boolean done = false;
+
+    /**
+     * constructor for the EventLoop class
+     * @param name the name of the loop thread
+     * @param workers the workers received frames are handled on
+     * @throws IOException if the selector cannot be opened
+     */
+    EventLoop(String name, Executor workers) throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+        this.thread = new Thread(this, name);
+    }
+
+    /**
+     * the start function for the class
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop the loop and close every channel it serves
+     */
+    public void close() {
+        done = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Accept connections on a server channel from this loop
+     * @param server the bound server channel
+     * @param transport the transport accepted connections are spread
+     *                  across
+     * @throws IOException if the channel cannot be made non-blocking
+     */
+    void listen(ServerSocketChannel server, NioTransport transport)
+            throws IOException {
+        server.configureBlocking(false);
+        execute(() -> {
+            try {
+                server.register(selector, SelectionKey.OP_ACCEPT, transport);
+            } catch (ClosedChannelException e) {
+                Logger.getLogger("Node.Log").log(Level.WARNING,
+                        "Unable to accept connections: "
+                        + e.getLocalizedMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Serve a connected channel from this loop
+     * @param channel the connected channel
+     * @return the peer for the channel
+     * @throws IOException if the channel cannot be made non-blocking
+     */
+    ChannelPeer add(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        ChannelPeer peer = new ChannelPeer(channel, this);
+        Node.addPeer(peer);
+        execute(() -> {
+            try {
+                peer.setKey(channel.register(selector,
+                        SelectionKey.OP_READ, peer));
+                write(peer);
+            } catch (IOException e) {
+                close(peer, e);
+            }
+        });
+        return peer;
+    }
+
+    /**
+     * Ask the loop to write the frames queued for a peer
+     * @param peer the peer with queued frames
+     */
+    void requestWrite(ChannelPeer peer) {
+        execute(() -> {
+            try {
+                write(peer);
+            } catch (IOException e) {
+                close(peer, e);
+            }
+        });
+    }
+
+    /**
+     * Ask the loop to read from a peer's channel again after its inbox
+     * drained
+     * @param peer the peer whose reads were paused
+     */
+    void resumeRead(ChannelPeer peer) {
+        execute(() -> {
+            SelectionKey key = peer.getKey();
+            if (key != null && key.isValid() && !peer.isReadPaused()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        });
+    }
+
+    /**
+     * Run a task on the loop thread
+     * @param task the task to run
+     */
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Run method within the EventLoop instance to read, write and accept
+     * on ready channels until the loop is closed
+     */
+    public void run() {
+        Logger logger = Logger.getLogger("Node.Log");
+        try {
+            while (!done) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Event loop failed: "
+                    + e.getLocalizedMessage(), e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof ChannelPeer peer) {
+                    Node.removeConnection(peer);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing selector", e);
+            }
+        }
+    }
+
+    /**
+     * Accept, read or write on a ready channel
+     * @param key the key of the ready channel
+     */
+    private void handleKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept((ServerSocketChannel) key.channel(),
+                    (NioTransport) key.attachment());
+            return;
+        }
+        ChannelPeer peer = (ChannelPeer) key.attachment();
+        try {
+            if (key.isReadable()) {
+                read(peer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(peer);
+            }
+        } catch (IOException e) {
+            close(peer, e);
+        }
+    }
+
+    /**
+     * Accept a pending connection and hand it to one of the transport's
+     * loops
+     * @param server the server channel with a pending connection
+     * @param transport the transport accepted connections are spread
+     *                  across
+     */
+    private void accept(ServerSocketChannel server, NioTransport transport) {
+        Logger logger = Logger.getLogger("Node.Log");
+        try {
+            SocketChannel channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            logger.log(Level.INFO, "Adding " +
+                    "new connection to connection list: "
+                    + channel.getRemoteAddress());
+            transport.add(channel);
+        } catch (IOException e) {
+            logger.log(Level.INFO,
+                    "Closing socket: " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Read what the channel has and hand every whole frame received to
+     * the workers. Reading stops while the peer has too many frames
+     * waiting. A frame with an invalid header closes the connection,
+     * since the rest of the stream can no longer be framed.
+     * @param peer the peer with bytes to read
+     * @throws IOException if the channel fails or reaches end of stream
+     */
+    private void read(ChannelPeer peer) throws IOException {
+        readBuffer.clear();
+        if (peer.getChannel().read(readBuffer) < 0) {
+            throw new EOFException("Connection closed by peer");
+        }
+        readBuffer.flip();
+        BadAttributeValueException invalid = null;
+        try {
+            peer.getDecoder().feed(readBuffer);
+        } catch (BadAttributeValueException e) {
+            invalid = e;
+        }
+        //Frames that arrived ahead of an invalid header are still handled
+        boolean room = true;
+        Frame frame;
+        while ((frame = peer.getDecoder().nextFrame()) != null) {
+            room = peer.receive(frame, workers) && room;
+        }
+        if (invalid != null) {
+            throw new IOException("Invalid frame header: "
+                    + invalid.getLocalizedMessage(), invalid);
+        }
+        if (!room && !peer.pauseRead()) {
+            SelectionKey key = peer.getKey();
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Write the frames queued for a peer until the queue is empty or the
+     * channel cannot take more, and only watch for writability while
+     * bytes are left over
+     * @param peer the peer with frames to write
+     * @throws IOException if the channel fails
+     */
+    private void write(ChannelPeer peer) throws IOException {
+        SelectionKey key = peer.getKey();
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int read = peer.isReadPaused() ? 0 : SelectionKey.OP_READ;
+        ByteBuffer[] buffers;
+        while ((buffers = peer.nextWrite(MAX_WRITE_BATCH)) != null) {
+            peer.getChannel().write(buffers);
+            if (peer.hasUnwritten()) {
+                key.interestOps(read | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        key.interestOps(read);
+    }
+
+    /**
+     * Drop a connection after an error
+     * @param peer the failed peer
+     * @param e the error
+     */
+    private void close(ChannelPeer peer, IOException e) {
+        Logger.getLogger("Node.Log").log(Level.INFO,
+                "Closing node: " + e.getLocalizedMessage(), e);
+        Node.removeConnection(peer);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import klab.serialization.*;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ExpandingRingSearch class which starts a search with a small TTL and
+ * re-issues it with a larger TTL until enough results arrive or the
+ * maximum TTL has been tried
+ */
+public class ExpandingRingSearch implements Runnable {
+    /**
+     * the search string being looked for
+     */
+    private final String searchString;
+    /**
+     * the routing service of each ring
+     */
+    private final RoutingService routing;
+    /**
+     * the number of results that ends the search
+     */
+    private final int resultTarget;
+    /**
+     * how much the TTL is multiplied by for each new ring
+     */
+    private final int growthFactor;
+    /**
+     * the largest TTL a ring is sent with
+     */
+    private final int maxTTL;
+    /**
+     * how long to wait for results before growing the ring
+     */
+    private final long timeoutMillis;
+    /**
+     * the scheduler used to check results after each ring
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * the number of results received across all rings
+     */
+    private final AtomicInteger results = new AtomicInteger();
+    /**
+     * the TTL of the ring currently in flight
+     */
+    private int ttl;
+
+    /**
+     * constructor for the ExpandingRingSearch class
+     * @param searchString the search string to look for
+     * @param routing the routing service of each ring
+     * @param startTTL the TTL of the first ring
+     * @param growthFactor how much the TTL is multiplied by for each ring
+     * @param maxTTL the largest TTL a ring is sent with
+     * @param resultTarget the number of results that ends the search
+     * @param timeoutMillis how long to wait for results after each ring
+     * @param scheduler the scheduler to check results with
+     */
+    ExpandingRingSearch(String searchString, RoutingService routing,
+                        int startTTL, int growthFactor, int maxTTL,
+                        int resultTarget, long timeoutMillis,
+                        ScheduledExecutorService scheduler) {
+        this.searchString = searchString;
+        this.routing = routing;
+        this.ttl = Math.min(startTTL, maxTTL);
+        this.growthFactor = growthFactor;
+        this.maxTTL = maxTTL;
+        this.resultTarget = resultTarget;
+        this.timeoutMillis = timeoutMillis;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Count results received for one of this search's rings
+     * @param count the number of results received
+     */
+    void addResults(int count) {
+        results.addAndGet(count);
+    }
+
+    /**
+     * Send the current ring and schedule the check for its results
+     */
+    public void run() {
+        Logger logger = Logger.getLogger("Node.Log");
+        try {
+            Node.sendSearch(searchString, ttl, routing, this);
+            logger.log(Level.INFO, "Expanding ring search for "
+                    + searchString + " with TTL " + ttl);
+            scheduler.schedule(this::checkResults, timeoutMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (BadAttributeValueException | IOException e) {
+            logger.log(Level.WARNING, "Unable to send search request: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Grow the ring if too few results have arrived
+     */
+    private void checkResults() {
+        if (results.get() >= resultTarget || ttl >= maxTTL) {
+            Logger.getLogger("Node.Log").log(Level.INFO,
+                    "Expanding ring search for " + searchString
+                    + " finished with " + results.get() + " results");
+            return;
+        }
+        ttl = Math.min(maxTTL, Math.max(ttl + 1, ttl * growthFactor));
+        run();
+    }
+}
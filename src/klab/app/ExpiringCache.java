@@ -0,0 +1,183 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent map whose entries expire a fixed time after insertion and
+ * which never holds more than a fixed number of entries. Because every
+ * entry lives for the same amount of time, insertion order is also
+ * expiry order, so expired and excess entries are always removed from the
+ * head of a single queue.
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ExpiringCache<K, V> {
+    /**
+     * A single cached value with its expiry time
+     * @param <K> key type
+     * @param <V> value type
+     */
+    private static final class Entry<K, V> {
+        /**
+         * the key the entry is stored under
+         */
+        private final K key;
+        /**
+         * the cached value
+         */
+        private final V value;
+        /**
+         * System.nanoTime value after which the entry is expired
+         */
+        private final long expiresAt;
+
+        /**
+         * constructor for the Entry class
+         * @param key the key the entry is stored under
+         * @param value the cached value
+         * @param expiresAt nanoTime after which the entry is expired
+         */
+        private Entry(K key, V value, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * check whether the entry is expired
+         * @param now the current nanoTime
+         * @return true if the entry is expired
+         */
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    /**
+     * the live entries
+     */
+    private final ConcurrentHashMap<K, Entry<K, V>> map =
+            new ConcurrentHashMap<>();
+    /**
+     * entries in insertion (and therefore expiry) order
+     */
+    private final ConcurrentLinkedQueue<Entry<K, V>> order =
+            new ConcurrentLinkedQueue<>();
+    /**
+     * the most entries the cache holds
+     */
+    private final int maxSize;
+    /**
+     * how long an entry lives in nanoseconds
+     */
+    private final long timeToLive;
+
+    /**
+     * constructor for the ExpiringCache class
+     * @param maxSize the most entries the cache holds
+     * @param timeToLive how long an entry lives
+     * @param unit the unit of timeToLive
+     * @throws IllegalArgumentException if maxSize or timeToLive is not
+     *                                  positive
+     */
+    public ExpiringCache(int maxSize, long timeToLive, TimeUnit unit) {
+        if (maxSize <= 0 || timeToLive <= 0) {
+            throw new IllegalArgumentException("Invalid cache bounds");
+        }
+        this.maxSize = maxSize;
+        this.timeToLive = unit.toNanos(timeToLive);
+    }
+
+    /**
+     * Store a value unless the key already has a live value
+     * @param key the key to store under
+     * @param value the value to store
+     * @return the existing live value, or null if value was stored
+     */
+    public V putIfAbsent(K key, V value) {
+        long now = System.nanoTime();
+        Entry<K, V> entry = new Entry<>(key, value, now + timeToLive);
+        while (true) {
+            Entry<K, V> existing = map.putIfAbsent(key, entry);
+            if (existing == null) {
+                break;
+            }
+            if (!existing.isExpired(now)) {
+                return existing.value;
+            }
+            if (map.replace(key, existing, entry)) {
+                break;
+            }
+        }
+        order.add(entry);
+        evict(now);
+        return null;
+    }
+
+    /**
+     * Get the live value for a key
+     * @param key the key to look up
+     * @return the value, or null if absent or expired
+     */
+    public V get(K key) {
+        Entry<K, V> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            map.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Remove the value for a key
+     * @param key the key to remove
+     * @return the removed live value, or null if absent or expired
+     */
+    public V remove(K key) {
+        Entry<K, V> entry = map.remove(key);
+        if (entry == null || entry.isExpired(System.nanoTime())) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Get the number of entries, including any that have expired but not
+     * yet been purged
+     * @return number of entries
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Remove every expired entry
+     */
+    public void purge() {
+        evict(System.nanoTime());
+    }
+
+    /**
+     * Remove expired entries and the oldest entries beyond maxSize
+     * @param now the current nanoTime
+     */
+    private void evict(long now) {
+        Entry<K, V> head;
+        while ((head = order.peek()) != null &&
+                (head.isExpired(now) || map.size() > maxSize)) {
+            if (order.remove(head)) {
+                map.remove(head.key, head);
+            }
+        }
+    }
+}
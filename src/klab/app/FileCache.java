@@ -0,0 +1,233 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * FileCache class which keeps the contents of small, popular shared files
+ * in direct buffers so downloads of them are served from memory. A file is
+ * only cached once it has been requested more than once, and the least
+ * recently used files are dropped to stay within a byte budget. Every
+ * lookup checks the file's size and modification time, so a file changed
+ * on disk is read again rather than served stale.
+ */
+public class FileCache {
+    /**
+     * A cached file
+     */
+    private static final class Entry {
+        /**
+         * the contents of the file, read-only
+         */
+        private final ByteBuffer contents;
+        /**
+         * the modification time of the file when it was read
+         */
+        private final FileTime modified;
+
+        /**
+         * constructor for the Entry class
+         * @param contents the contents of the file
+         * @param modified the modification time of the file when it was read
+         */
+        Entry(ByteBuffer contents, FileTime modified) {
+            this.contents = contents;
+            this.modified = modified;
+        }
+
+        /**
+         * Returns whether the file on disk is still the one that was read
+         * @param attributes the current attributes of the file
+         * @return true if the cached contents are current
+         */
+        boolean matches(BasicFileAttributes attributes) {
+            return attributes.size() == contents.capacity()
+                    && attributes.lastModifiedTime().equals(modified);
+        }
+    }
+
+    /**
+     * most bytes of file contents held, set with -Dklab.cache.bytes; 0
+     * turns the cache off
+     */
+    private static final long BUDGET =
+            Math.max(0, Long.getLong("klab.cache.bytes", 0));
+    /**
+     * largest file that is cached, set with -Dklab.cache.file
+     */
+    private static final long MAX_FILE_SIZE = Math.min(Integer.MAX_VALUE,
+            Math.max(1, Long.getLong("klab.cache.file", 1 << 20)));
+    /**
+     * requests for a file before it is cached
+     */
+    private static final int ADMIT_REQUESTS = 2;
+    /**
+     * most uncached files whose requests are counted; the counts start
+     * over once there are more
+     */
+    private static final int MAX_COUNTED = 1024;
+
+    /**
+     * cached files by name, least recently used first
+     */
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * requests seen for files that are not cached
+     */
+    private final Map<String, Integer> requests = new HashMap<>();
+    /**
+     * bytes of file contents held
+     */
+    private long used = 0;
+
+    /**
+     * Returns whether files are cached at all
+     * @return true if the cache has a budget
+     */
+    public boolean isEnabled() {
+        return BUDGET > 0;
+    }
+
+    /**
+     * Get the cached contents of a file if they are still current
+     * @param name the file name
+     * @param path the path of the file
+     * @return a read-only buffer of the whole file, or null if the file is
+     *         not cached or has changed
+     */
+    public ByteBuffer get(String name, Path path) {
+        if (!isEnabled()) {
+            return null;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path,
+                    BasicFileAttributes.class);
+        } catch (IOException e) {
+            invalidate(name);
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            if (!entry.matches(attributes)) {
+                remove(name);
+                return null;
+            }
+            return entry.contents.duplicate();
+        }
+    }
+
+    /**
+     * Count a request for a file that was not served from the cache, and
+     * read the file into the cache once it has been requested often enough
+     * @param name the file name
+     * @param path the path of the file
+     * @param file the open file
+     */
+    public void offer(String name, Path path, FileChannel file) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            if (entries.containsKey(name)) {
+                return;
+            }
+            if (requests.size() >= MAX_COUNTED) {
+                requests.clear();
+            }
+            if (requests.merge(name, 1, Integer::sum) < ADMIT_REQUESTS) {
+                return;
+            }
+        }
+        try {
+            BasicFileAttributes before = Files.readAttributes(path,
+                    BasicFileAttributes.class);
+            if (before.size() > MAX_FILE_SIZE || before.size() > BUDGET) {
+                return;
+            }
+            ByteBuffer contents = ByteBuffer.allocateDirect(
+                    (int) before.size());
+            while (contents.hasRemaining()) {
+                if (file.read(contents, contents.position()) < 0) {
+                    //The file shrank while it was read
+                    return;
+                }
+            }
+            Entry entry = new Entry(contents.flip().asReadOnlyBuffer(),
+                    before.lastModifiedTime());
+            if (!entry.matches(Files.readAttributes(path,
+                    BasicFileAttributes.class))) {
+                return;
+            }
+            put(name, entry);
+            Logger.getLogger("Node.Log").log(Level.INFO, "Cached " + name
+                    + " (" + before.size() + " bytes)");
+        } catch (IOException e) {
+            Logger.getLogger("Node.Log").log(Level.FINE,
+                    "Unable to cache " + name + ": "
+                    + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Drop a file from the cache after it changed
+     * @param name the file name
+     */
+    public synchronized void invalidate(String name) {
+        remove(name);
+        requests.remove(name);
+    }
+
+    /**
+     * Add a file to the cache, dropping the least recently used files
+     * until the cache is within its budget
+     * @param name the file name
+     * @param entry the cached file
+     */
+    private synchronized void put(String name, Entry entry) {
+        remove(name);
+        requests.remove(name);
+        entries.put(name, entry);
+        used += entry.contents.capacity();
+        Iterator<Map.Entry<String, Entry>> oldest =
+                entries.entrySet().iterator();
+        while (used > BUDGET && oldest.hasNext()) {
+            Map.Entry<String, Entry> evicted = oldest.next();
+            if (evicted.getValue() != entry) {
+                used -= evicted.getValue().contents.capacity();
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove a file from the cache
+     * @param name the file name
+     */
+    private void remove(String name) {
+        Entry entry = entries.remove(name);
+        if (entry != null) {
+            used -= entry.contents.capacity();
+        }
+    }
+}
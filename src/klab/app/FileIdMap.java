@@ -0,0 +1,294 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent bidirectional map between shared file names and their random
+ * 4 byte file IDs. Both directions are open addressing tables, and the ID
+ * side keys on primitive longs, so lookups either way are O(1) and no
+ * boxed Long is stored per file. Lookups run under an optimistic read and
+ * only take the read lock if a write raced with them.
+ */
+public class FileIdMap {
+    /**
+     * the number of distinct 4 byte file IDs
+     */
+    private static final long FILE_ID_RANGE = 4294967296L;
+    /**
+     * the ID returned for names with no ID
+     */
+    public static final long NO_ID = -1;
+    /**
+     * the starting table capacity, a power of two
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * guards both tables
+     */
+    private final StampedLock lock = new StampedLock();
+    /**
+     * file IDs in the ID table
+     */
+    private long[] idKeys = new long[INITIAL_CAPACITY];
+    /**
+     * file names in the ID table, null for an empty slot
+     */
+    private String[] idValues = new String[INITIAL_CAPACITY];
+    /**
+     * file names in the name table, null for an empty slot
+     */
+    private String[] nameKeys = new String[INITIAL_CAPACITY];
+    /**
+     * file IDs in the name table
+     */
+    private long[] nameValues = new long[INITIAL_CAPACITY];
+    /**
+     * the number of files mapped
+     */
+    private int size;
+
+    /**
+     * Get the ID of a file name, assigning a new random ID if it has none
+     * @param name the file name
+     * @return the ID of the file
+     */
+    public long add(String name) {
+        long existing = getID(name);
+        if (existing != NO_ID) {
+            return existing;
+        }
+        long stamp = lock.writeLock();
+        try {
+            int slot = findName(nameKeys, name);
+            if (nameKeys[slot] != null) {
+                return nameValues[slot];
+            }
+            if ((size + 1) * 2 > idKeys.length) {
+                resize(idKeys.length * 2);
+            }
+            long id = ThreadLocalRandom.current().nextLong(FILE_ID_RANGE);
+            while (idValues[findID(idKeys, idValues, id)] != null) {
+                id = (id + 1) % FILE_ID_RANGE;
+            }
+            insert(name, id);
+            size++;
+            return id;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove a file name and its ID
+     * @param name the file name
+     */
+    public void remove(String name) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = findName(nameKeys, name);
+            if (nameKeys[slot] == null) {
+                return;
+            }
+            long id = nameValues[slot];
+            deleteName(slot);
+            deleteID(findID(idKeys, idValues, id));
+            size--;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Get the ID of a file name. The table is read without locking and
+     * read again under the read lock only if a write raced with the read.
+     * @param name the file name
+     * @return the file ID, or NO_ID if the name has none
+     */
+    public long getID(String name) {
+        long stamp = lock.tryOptimisticRead();
+        String[] keys = nameKeys;
+        long[] values = nameValues;
+        long id = NO_ID;
+        if (keys.length == values.length) {
+            int slot = findName(keys, name);
+            String key = keys[slot];
+            if (key != null && key.equals(name)) {
+                id = values[slot];
+            }
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                int slot = findName(nameKeys, name);
+                id = nameKeys[slot] != null ? nameValues[slot] : NO_ID;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Get the file name with an ID
+     * @param id the file ID
+     * @return the file name, or null if no file has the ID
+     */
+    public String getName(long id) {
+        long stamp = lock.tryOptimisticRead();
+        long[] keys = idKeys;
+        String[] values = idValues;
+        String name = null;
+        if (keys.length == values.length) {
+            name = values[findID(keys, values, id)];
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                name = idValues[findID(idKeys, idValues, id)];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Get the number of files mapped
+     * @return the number of files
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Find the slot holding an ID, or the empty slot it would go in
+     * @param keys the ID table keys
+     * @param values the ID table values
+     * @param id the file ID
+     * @return the slot index
+     */
+    private static int findID(long[] keys, String[] values, long id) {
+        int mask = keys.length - 1;
+        int slot = mix(Long.hashCode(id)) & mask;
+        for (int probes = 0; probes < keys.length; probes++) {
+            if (values[slot] == null || keys[slot] == id) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Find the slot holding a name, or the empty slot it would go in
+     * @param keys the name table keys
+     * @param name the file name
+     * @return the slot index
+     */
+    private static int findName(String[] keys, String name) {
+        int mask = keys.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        for (int probes = 0; probes < keys.length; probes++) {
+            String key = keys[slot];
+            if (key == null || key.equals(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Spread hash bits so nearby keys land in different slots
+     * @param hash the hash to spread
+     * @return the spread hash
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Put a name and ID into both tables, which must have room
+     * @param name the file name
+     * @param id the file ID
+     */
+    private void insert(String name, long id) {
+        int slot = findName(nameKeys, name);
+        nameKeys[slot] = name;
+        nameValues[slot] = id;
+        slot = findID(idKeys, idValues, id);
+        idKeys[slot] = id;
+        idValues[slot] = name;
+    }
+
+    /**
+     * Empty a slot in the name table, shifting later entries of the same
+     * probe run back so they stay reachable
+     * @param slot the slot to empty
+     */
+    private void deleteName(int slot) {
+        int mask = nameKeys.length - 1;
+        int next = (slot + 1) & mask;
+        while (nameKeys[next] != null) {
+            int home = mix(nameKeys[next].hashCode()) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                nameKeys[slot] = nameKeys[next];
+                nameValues[slot] = nameValues[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        nameKeys[slot] = null;
+    }
+
+    /**
+     * Empty a slot in the ID table, shifting later entries of the same
+     * probe run back so they stay reachable
+     * @param slot the slot to empty
+     */
+    private void deleteID(int slot) {
+        int mask = idKeys.length - 1;
+        int next = (slot + 1) & mask;
+        while (idValues[next] != null) {
+            int home = mix(Long.hashCode(idKeys[next])) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                idKeys[slot] = idKeys[next];
+                idValues[slot] = idValues[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        idValues[slot] = null;
+    }
+
+    /**
+     * Grow both tables and re-insert every entry
+     * @param capacity the new capacity, a power of two
+     */
+    private void resize(int capacity) {
+        String[] oldNames = nameKeys;
+        long[] oldIDs = nameValues;
+        nameKeys = new String[capacity];
+        nameValues = new long[capacity];
+        idKeys = new long[capacity];
+        idValues = new String[capacity];
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                insert(oldNames[i], oldIDs[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the files in the shared directory. The index is built
+ * once at startup and then kept up to date by a WatchService, so searches
+ * and file sizes are answered without touching the file system. Only
+ * regular files are indexed; subdirectories cannot be downloaded, so they
+ * are never offered in responses.
+ */
+public class FileIndex implements Runnable {
+    /**
+     * A single indexed file
+     */
+    public static final class IndexedFile {
+        /**
+         * the name of the file
+         */
+        private final String name;
+        /**
+         * the random ID of the file
+         */
+        private final long id;
+        /**
+         * the size of the file in bytes
+         */
+        private final long size;
+
+        /**
+         * constructor for the IndexedFile class
+         * @param name the name of the file
+         * @param id the random ID of the file
+         * @param size the size of the file in bytes
+         */
+        IndexedFile(String name, long id, long size) {
+            this.name = name;
+            this.id = id;
+            this.size = size;
+        }
+
+        /**
+         * Get the name of the file
+         * @return the file name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the random ID of the file
+         * @return the file ID
+         */
+        public long getID() {
+            return id;
+        }
+
+        /**
+         * Get the size of the file
+         * @return the file size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * the shared directory
+     */
+    private final Path directory;
+    /**
+     * indexed files keyed by name
+     */
+    private final Map<String, IndexedFile> files = new ConcurrentHashMap<>();
+    /**
+     * substring index over the names of the indexed files
+     */
+    private final SubstringIndex names = new SubstringIndex();
+    /**
+     * map between file names and their random file IDs shared with the
+     * download service
+     */
+    private final FileIdMap fileIds;
+    /**
+     * cache of file contents to drop changed files from
+     */
+    private final FileCache fileCache;
+    /**
+     * the watch service reporting directory changes
+     */
+    private WatchService watchService;
+    /**
+     * the thread applying directory changes to the index
+     */
+    private Thread thread;
+
+    /**
+     * constructor for the FileIndex class
+     * @param directory the shared directory
+     * @param fileIds map between file names and IDs to keep up to date
+     * @param fileCache cache of file contents to drop changed files from
+     */
+    public FileIndex(Path directory, FileIdMap fileIds, FileCache fileCache) {
+        this.directory = directory;
+        this.fileIds = fileIds;
+        this.fileCache = fileCache;
+    }
+
+    /**
+     * Build the index and start watching the directory for changes
+     * @throws IOException if the directory cannot be read or watched
+     */
+    public void start() throws IOException {
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        rescan();
+        thread = new Thread(this, "FileIndex");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching the directory
+     * @throws IOException if an I/O error occurs
+     */
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Run method within the FileIndex instance to apply directory changes
+     * to the index as they are reported
+     */
+    public void run() {
+        Logger logger = Logger.getLogger("Node.Log");
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan();
+                    }
+                    else {
+                        refresh(((Path) event.context()).toString());
+                    }
+                }
+                if (!key.reset()) {
+                    logger.log(Level.WARNING,
+                            "Shared directory is no longer watched");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            logger.log(Level.INFO, "Stopped watching shared directory");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error with the file system: "
+                    + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Get a lazy stream of the files whose names contain the search
+     * string, so matches can be used as they are found
+     * @param searchString the search string
+     * @return the matching files
+     */
+    public Stream<IndexedFile> stream(String searchString) {
+        return names.stream(searchString).map(files::get)
+                .filter(Objects::nonNull);
+    }
+
+    /**
+     * Get an indexed file by name
+     * @param name the file name
+     * @return the indexed file, or null if there is none
+     */
+    public IndexedFile get(String name) {
+        return files.get(name);
+    }
+
+    /**
+     * Re-read every file in the directory, adding new files and removing
+     * files that are gone
+     * @throws IOException if the directory cannot be read
+     */
+    private void rescan() throws IOException {
+        Set<String> present = new HashSet<>();
+        try (DirectoryStream<Path> stream =
+                     Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                present.add(name);
+                refresh(name);
+            }
+        }
+        for (String name : files.keySet()) {
+            if (!present.contains(name)) {
+                refresh(name);
+            }
+        }
+    }
+
+    /**
+     * Bring the index entry for one file up to date with the file system
+     * @param name the file name
+     */
+    private void refresh(String name) {
+        Path path = directory.resolve(name);
+        fileCache.invalidate(name);
+        try {
+            if (Files.isRegularFile(path)) {
+                long id = fileIds.add(name);
+                files.put(name, new IndexedFile(name, id, Files.size(path)));
+                names.add(name);
+                return;
+            }
+        } catch (IOException e) {
+            Logger.getLogger("Node.Log").log(Level.FINE,
+                    "Unable to read " + name + ": "
+                    + e.getLocalizedMessage(), e);
+        }
+        names.remove(name);
+        files.remove(name);
+        fileIds.remove(name);
+    }
+}
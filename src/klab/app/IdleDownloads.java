@@ -0,0 +1,242 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * IdleDownloads class which watches persistent download connections
+ * between requests from one selector thread, so a connection waiting for
+ * its next request does not hold one of the download workers. Once a
+ * request arrives the connection is handed back to the workers.
+ * Connections idle past the timeout are closed, and connections beyond
+ * the cap are closed instead of being watched.
+ */
+public class IdleDownloads implements Runnable {
+    /**
+     * milliseconds a persistent connection may wait for its next request
+     * before it is closed, set with -Dklab.download.timeout
+     */
+    static final int IDLE_TIMEOUT_MS =
+            Math.max(1, Integer.getInteger("klab.download.timeout", 10000));
+    /**
+     * most idle connections watched at once, set with
+     * -Dklab.download.idle
+     */
+    private static final int MAX_IDLE =
+            Math.max(1, Integer.getInteger("klab.download.idle", 256));
+    /**
+     * milliseconds between checks for connections past the timeout
+     */
+    private static final long SWEEP_MS = 1000;
+
+    /**
+     * A watched connection and when it times out
+     */
+    private static final class Parked {
+        /**
+         * the handler of the connection
+         */
+        private final DownloadRunner runner;
+        /**
+         * System.nanoTime value after which the connection is closed
+         */
+        private final long deadline;
+
+        /**
+         * constructor for the Parked class
+         * @param runner the handler of the connection
+         * @param deadline nanoTime after which the connection is closed
+         */
+        Parked(DownloadRunner runner, long deadline) {
+            this.runner = runner;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * the selector reporting connections with a new request
+     */
+    private final Selector selector;
+    /**
+     * the download workers connections are handed back to
+     */
+    private final ExecutorService workers;
+    /**
+     * connections handed over by workers, registered on the loop thread
+     */
+    private final Queue<DownloadRunner> arriving =
+            new ConcurrentLinkedQueue<>();
+    /**
+     * number of connections handed over and not yet handed back or closed
+     */
+    private final AtomicInteger idle = new AtomicInteger();
+    /**
+     * the thread watching the connections
+     */
+    private final Thread thread;
+    /**
+     * to determine if the loop should stop
+     */
+    private volatile boolean done = false;
+
+    /**
+     * constructor for the IdleDownloads class
+     * @param workers the download workers to hand connections back to
+     * @throws IOException if the selector cannot be opened
+     */
+    IdleDownloads(ExecutorService workers) throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+        this.thread = new Thread(this, "IdleDownloads");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * the start function for the class
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop watching and close every idle connection
+     */
+    public void close() {
+        done = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Watch a connection until its next request arrives
+     * @param runner the handler of the connection, which has read every
+     *               request received so far
+     * @return true if the connection is watched, false if too many
+     *         connections are idle already
+     */
+    boolean park(DownloadRunner runner) {
+        if (done || idle.incrementAndGet() > MAX_IDLE) {
+            idle.decrementAndGet();
+            return false;
+        }
+        arriving.add(runner);
+        selector.wakeup();
+        return true;
+    }
+
+    /**
+     * Run method within the IdleDownloads instance to hand connections
+     * with a new request back to the workers and close those past the
+     * timeout
+     */
+    public void run() {
+        Logger logger = Logger.getLogger("Node.Log");
+        try {
+            while (!done) {
+                selector.select(SWEEP_MS);
+                register();
+                List<DownloadRunner> ready = new ArrayList<>();
+                List<DownloadRunner> expired = new ArrayList<>();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ready.add(((Parked) key.attachment()).runner);
+                    key.cancel();
+                }
+                selector.selectedKeys().clear();
+                long now = System.nanoTime();
+                for (SelectionKey key : selector.keys()) {
+                    Parked parked = (Parked) key.attachment();
+                    if (key.isValid() && now - parked.deadline >= 0) {
+                        expired.add(parked.runner);
+                        key.cancel();
+                    }
+                }
+                if (ready.isEmpty() && expired.isEmpty()) {
+                    continue;
+                }
+                //Cancelled keys are only removed by the next select, and a
+                //channel cannot block again while it is still registered
+                selector.selectNow();
+                for (DownloadRunner runner : ready) {
+                    resume(runner);
+                }
+                for (DownloadRunner runner : expired) {
+                    logger.log(Level.INFO, "Closing idle download "
+                            + "connection: " + runner);
+                    drop(runner);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Idle download watcher failed: "
+                    + e.getLocalizedMessage(), e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                drop(((Parked) key.attachment()).runner);
+            }
+            DownloadRunner runner;
+            while ((runner = arriving.poll()) != null) {
+                drop(runner);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing selector", e);
+            }
+        }
+    }
+
+    /**
+     * Start watching the connections handed over since the last select
+     */
+    private void register() {
+        long deadline = System.nanoTime() + IDLE_TIMEOUT_MS * 1_000_000L;
+        DownloadRunner runner;
+        while ((runner = arriving.poll()) != null) {
+            SocketChannel channel = runner.getChannel();
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ,
+                        new Parked(runner, deadline));
+            } catch (IOException e) {
+                drop(runner);
+            }
+        }
+    }
+
+    /**
+     * Hand a connection with a new request back to the workers
+     * @param runner the handler of the connection
+     */
+    private void resume(DownloadRunner runner) {
+        idle.decrementAndGet();
+        try {
+            runner.getChannel().configureBlocking(true);
+            workers.submit(runner);
+        } catch (IOException | RejectedExecutionException e) {
+            runner.close();
+        }
+    }
+
+    /**
+     * Close a watched connection
+     * @param runner the handler of the connection
+     */
+    private void drop(DownloadRunner runner) {
+        idle.decrementAndGet();
+        runner.close();
+    }
+}
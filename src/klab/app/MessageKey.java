@@ -0,0 +1,93 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.util.Objects;
+
+/**
+ * Compact, immutable map key for a 15 byte message ID. The ID is packed
+ * into two longs so keys hash and compare without touching an array.
+ */
+public final class MessageKey {
+    /**
+     * message ID length the key is built from
+     */
+    private static final int ID_LENGTH = 15;
+    /**
+     * number of ID bytes packed into the high half
+     */
+    private static final int HIGH_BYTES = 8;
+    /**
+     * first 8 bytes of the message ID
+     */
+    private final long high;
+    /**
+     * last 7 bytes of the message ID
+     */
+    private final long low;
+
+    /**
+     * constructor for the MessageKey class
+     * @param high first 8 bytes of the message ID
+     * @param low last 7 bytes of the message ID
+     */
+    private MessageKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Build a key from a message ID
+     * @param id the message ID
+     * @return key for the message ID
+     * @throws IllegalArgumentException if id is not 15 bytes long
+     */
+    public static MessageKey of(byte[] id) {
+        Objects.requireNonNull(id, "id was null");
+        if (id.length != ID_LENGTH) {
+            throw new IllegalArgumentException("Invalid message ID length");
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < HIGH_BYTES; i++) {
+            high = (high << 8) | (id[i] & 0xFF);
+        }
+        for (int i = HIGH_BYTES; i < ID_LENGTH; i++) {
+            low = (low << 8) | (id[i] & 0xFF);
+        }
+        return new MessageKey(high, low);
+    }
+
+    /**
+     * equals override for MessageKey
+     * @param o the object to compare
+     * @return true if both keys were built from the same message ID
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MessageKey key)) return false;
+        return high == key.high && low == key.low;
+    }
+
+    /**
+     * overridden hashcode for MessageKey
+     * @return hashcode for MessageKey
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high) * 31 + Long.hashCode(low);
+    }
+
+    /**
+     * Returns the message ID as a 30-character hex string
+     * @return String representation
+     */
+    @Override
+    public String toString() {
+        return String.format("%016X%014X", high, low);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking transport for neighbor connections, used in place of
+ * ConnectionRunner and per-connection threads when the node is started
+ * with -Dklab.transport=nio. A small, fixed set of EventLoops serves
+ * every connection; the first loop also accepts new ones. Received frames
+ * are handled on a separate pool of workers, so searches that take a
+ * while to answer do not stall the loops.
+ */
+public class NioTransport {
+    /**
+     * number of event loop threads, set with -Dklab.nio.threads
+     */
+    private static final int LOOPS = Math.max(1, Integer.getInteger(
+            "klab.nio.threads", Runtime.getRuntime().availableProcessors()));
+    /**
+     * number of threads handling received frames, set with
+     * -Dklab.nio.workers
+     */
+    private static final int WORKERS = Math.max(1, Integer.getInteger(
+            "klab.nio.workers", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * the server channel accepting neighbor connections
+     */
+    private final ServerSocketChannel server;
+    /**
+     * the event loops serving connections
+     */
+    private final EventLoop[] loops = new EventLoop[LOOPS];
+    /**
+     * the loop the next connection is given to
+     */
+    private final AtomicInteger next = new AtomicInteger();
+    /**
+     * the workers received frames are handled on
+     */
+    private final ExecutorService workers = Node.newWorkerService(WORKERS);
+
+    /**
+     * the constructor for the NioTransport instance
+     * @param localNodePort the node connection port
+     * @throws IOException if an I/O error occurs
+     */
+    public NioTransport(int localNodePort) throws IOException {
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(localNodePort));
+        for (int i = 0; i < LOOPS; i++) {
+            loops[i] = new EventLoop("EventLoop-" + i, workers);
+        }
+    }
+
+    /**
+     * the start function for the class
+     * @throws IOException if the server channel cannot be made
+     *                     non-blocking
+     */
+    public void start() throws IOException {
+        loops[0].listen(server, this);
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * Connect to a neighbor node
+     * @param host the neighbor host
+     * @param port the neighbor node port
+     * @return the peer for the new connection
+     * @throws IOException if the connection fails
+     */
+    public Peer connect(String host, int port) throws IOException {
+        return add(SocketChannel.open(new InetSocketAddress(host, port)));
+    }
+
+    /**
+     * Give a connected channel to the next event loop
+     * @param channel the connected channel
+     * @return the peer for the channel
+     * @throws IOException if the channel cannot be made non-blocking
+     */
+    ChannelPeer add(SocketChannel channel) throws IOException {
+        EventLoop loop = loops[Math.floorMod(next.getAndIncrement(), LOOPS)];
+        return loop.add(channel);
+    }
+
+    /**
+     * the close function for the class and its connections
+     * @throws IOException if an I/O error occurs
+     */
+    public void close() throws IOException {
+        server.close();
+        for (EventLoop loop : loops) {
+            loop.close();
+        }
+        workers.shutdownNow();
+    }
+}
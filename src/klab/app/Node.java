@@ -7,8 +7,6 @@ package klab.app;
 
 import klab.serialization.*;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.net.*;
@@ -18,7 +16,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
 
 /**
@@ -53,15 +55,100 @@ public class Node {
      * number of values within a fileID
      */
     private static final int FILE_ID_LENGTH = 8;
+    /**
+     * number of arguments required for a swarm download
+     */
+    private static final int SWARM_ARG_LENGTH = 2;
     /**
      * number of arguments required for a download connection
      */
     private static final int DOWNLOAD_ARG_LENGTH = 5;
     /**
-     * number of bytes extra to reed if an error message is sent by the
-     * download service
+     * most search IDs remembered for duplicate suppression
+     */
+    private static final int SEEN_SEARCH_LIMIT = 10000;
+    /**
+     * how long a search ID is remembered for duplicate suppression
+     */
+    private static final long SEEN_SEARCH_TIMEOUT_MS = 60000;
+    /**
+     * most search IDs remembered for routing responses back
+     */
+    private static final int SEARCH_ROUTE_LIMIT = 10000;
+    /**
+     * how long responses to a search are routed back to its sender
+     */
+    private static final long SEARCH_ROUTE_TIMEOUT_MS = 60000;
+    /**
+     * most of this node's own searches remembered at once
+     */
+    private static final int OWN_SEARCH_LIMIT = 10000;
+    /**
+     * how long responses to one of this node's searches are accepted
      */
-    private static final int DOWNLOAD_ERROR_MES_LEN = 2;
+    private static final long OWN_SEARCH_TIMEOUT_MS = 300000;
+    /**
+     * how often searches past their timeout are purged
+     */
+    private static final long SEARCH_PURGE_PERIOD_MS = 1000;
+    /**
+     * most file names whose sources are remembered for swarm downloads
+     */
+    private static final int FILE_SOURCE_LIMIT = 10000;
+    /**
+     * how long the hosts advertising a file are remembered, measured from
+     * the first response naming it
+     */
+    private static final long FILE_SOURCE_TIMEOUT_MS = 300000;
+    /**
+     * most hosts remembered as sources of one file name
+     */
+    private static final int MAX_SOURCES_PER_FILE = 64;
+
+    /**
+     * number of walks a DEPTHFIRST search started by this node sends out,
+     * each to a different neighbor, set with -Dklab.walkers
+     */
+    private static final int WALKERS =
+            Math.max(1, Integer.getInteger("klab.walkers", 1));
+    /**
+     * number of results at which a DEPTHFIRST search ends, set with
+     * -Dklab.walk.results
+     */
+    private static final int WALK_RESULT_TARGET =
+            Math.max(1, Integer.getInteger("klab.walk.results", 1));
+
+    /**
+     * TTL of the first ring of an expanding ring search, set with
+     * -Dklab.ring.start
+     */
+    private static final int RING_START_TTL =
+            Math.max(1, Integer.getInteger("klab.ring.start", 2));
+    /**
+     * factor the TTL grows by for each new ring, set with
+     * -Dklab.ring.growth
+     */
+    private static final int RING_GROWTH =
+            Math.max(1, Integer.getInteger("klab.ring.growth", 2));
+    /**
+     * number of results that ends an expanding ring search, set with
+     * -Dklab.ring.results
+     */
+    private static final int RING_RESULT_TARGET =
+            Math.max(1, Integer.getInteger("klab.ring.results", 1));
+    /**
+     * milliseconds to wait for results before growing the ring, set with
+     * -Dklab.ring.timeout
+     */
+    private static final long RING_TIMEOUT_MS =
+            Math.max(1, Long.getLong("klab.ring.timeout", 2000));
+
+    /**
+     * true to run connection and download workers on virtual threads, set
+     * with -Dklab.threads=virtual
+     */
+    private static final boolean VIRTUAL_THREADS = "virtual"
+            .equalsIgnoreCase(System.getProperty("klab.threads"));
 
     /**
      * Logger instance used to log to a file
@@ -69,35 +156,74 @@ public class Node {
     private static final Logger LOGGER = Logger.getLogger("Node.Log");
 
     /**
-     * Map for searching with the searchID as the key and the search
-     * string as the value
+     * IDs of searches that have already been handled by this node
      */
-    private static final Map<String,String> searchMap = new HashMap<>();
+    private static final ExpiringCache<MessageKey, Boolean> seenSearches =
+            new ExpiringCache<>(SEEN_SEARCH_LIMIT, SEEN_SEARCH_TIMEOUT_MS,
+                                TimeUnit.MILLISECONDS);
 
     /**
-     * a map of file names to their random file IDs
+     * the state of each DEPTHFIRST search walking through this node
      */
-    private static final Map<String, Long> fileMapping = new HashMap<>();
+    private static final ExpiringCache<MessageKey, SearchWalk> walks =
+            new ExpiringCache<>(SEEN_SEARCH_LIMIT, SEEN_SEARCH_TIMEOUT_MS,
+                                TimeUnit.MILLISECONDS);
+
     /**
-     * ExecutorService for managing senderRunner instances
+     * the connection each foreign search arrived on, used to send its
+     * responses back along the reverse path
      */
-    private static final ExecutorService service =
-                         Executors.newSingleThreadExecutor();
+    private static final ExpiringCache<MessageKey, Peer> searchRoutes =
+            new ExpiringCache<>(SEARCH_ROUTE_LIMIT, SEARCH_ROUTE_TIMEOUT_MS,
+                                TimeUnit.MILLISECONDS);
 
     /**
-     * list of socket connections made
+     * hosts that advertised each file name in responses to this node's
+     * searches, used as the sources of swarm downloads
      */
-    public static final List<Socket> connectionList = new ArrayList<>();
+    private static final ExpiringCache<String, Set<SwarmDownload.Source>>
+            fileSources = new ExpiringCache<>(FILE_SOURCE_LIMIT,
+                    FILE_SOURCE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
 
     /**
-     * lust of searches that have been made
+     * map between file names and their random file IDs
+     */
+    private static final FileIdMap fileIds = new FileIdMap();
+    /**
+     * contents of popular shared files held in memory for downloads
      */
-    public static List<Search> searches = new ArrayList<>();
+    private static final FileCache fileCache = new FileCache();
+    /**
+     * in-memory index of the shared directory
+     */
+    private static FileIndex fileIndex;
+    /**
+     * the download host advertised in responses, resolved once at startup
+     */
+    private static InetSocketAddress downloadHost;
+
+    /**
+     * list of peer connections made
+     */
+    public static final List<Peer> connectionList = new ArrayList<>();
+
+    /**
+     * searches this node started, including each ring of its expanding
+     * ring searches
+     */
+    private static final SearchRegistry searches =
+            new SearchRegistry(OWN_SEARCH_LIMIT, OWN_SEARCH_TIMEOUT_MS);
+    /**
+     * scheduler for timed work such as growing expanding ring searches and
+     * purging expired searches
+     */
+    private static final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor();
     /**
      * the executorservice for the connections
      */
     private static final ExecutorService cachedService =
-            Executors.newCachedThreadPool();
+            newWorkerService(0);
 
     /**
      * Static block of code used to create settings for the logger.
@@ -121,77 +247,366 @@ public class Node {
     }
 
     /**
-     * Function to add Searches to a map
-     * @param search the search to add to the map
+     * Record a search ID as seen by this node
+     * @param id the search message ID
+     * @return true if the ID had not been seen recently
+     */
+    public static boolean markSearchSeen(byte[] id){
+        return seenSearches.putIfAbsent(MessageKey.of(id), Boolean.TRUE)
+                == null;
+    }
+
+    /**
+     * Remember the connection a search arrived on
+     * @param id the search message ID
+     * @param from the connection the search arrived on
+     */
+    public static void addSearchRoute(byte[] id, Peer from){
+        searchRoutes.putIfAbsent(MessageKey.of(id), from);
+    }
+
+    /**
+     * Get the connection responses to a search should be sent back on
+     * @param id the search message ID
+     * @return the connection the search arrived on, or null if unknown
+     *         or expired
+     */
+    public static Peer getSearchRoute(byte[] id){
+        return searchRoutes.get(MessageKey.of(id));
+    }
+
+    /**
+     * Start tracking a DEPTHFIRST search walking through this node
+     * @param id the search message ID
+     * @param from the connection the walk arrived on, or null if the
+     *             search started at this node
+     * @return the state of the walk
+     */
+    public static SearchWalk startWalk(byte[] id, Peer from){
+        SearchWalk walk = new SearchWalk(from);
+        SearchWalk known = walks.putIfAbsent(MessageKey.of(id), walk);
+        return known != null ? known : walk;
+    }
+
+    /**
+     * Remove expired entries from the node's caches. The caches otherwise
+     * only evict when a new entry is added, so on a quiet node they would
+     * keep closed connections and their queues reachable.
+     */
+    private static void purgeCaches(){
+        seenSearches.purge();
+        searchRoutes.purge();
+        walks.purge();
+        fileSources.purge();
+    }
+
+    /**
+     * Get the state of a DEPTHFIRST search walking through this node
+     * @param id the search message ID
+     * @return the state of the walk, or null if unknown or expired
+     */
+    public static SearchWalk getWalk(byte[] id){
+        return walks.get(MessageKey.of(id));
+    }
+
+    /**
+     * Get the current connections of this node
+     * @return a copy of the connection list
+     */
+    public static List<Peer> getPeers(){
+        synchronized (connectionList){
+            return new ArrayList<>(connectionList);
+        }
+    }
+
+    /**
+     * Choose the connections a search is sent to. BREADTHFIRST searches go
+     * to every connection; DEPTHFIRST searches go to a few random ones.
+     * @param routing the routing service of the search
+     * @param from the connection the search arrived on, or null if the
+     *             search started at this node
+     * @return the connections to send the search to
      */
-    public static synchronized void addToSearchMap(Search search){
-        byte[] temp = search.getID();
-        String s = Arrays.toString(temp);
-        searchMap.put(s,search.getSearchString());
+    public static List<Peer> selectPeers(RoutingService routing,
+                                         Peer from){
+        List<Peer> peers = getPeers();
+        peers.remove(from);
+        if(routing == RoutingService.DEPTHFIRST && peers.size() > WALKERS){
+            Collections.shuffle(peers, ThreadLocalRandom.current());
+            peers = new ArrayList<>(peers.subList(0, WALKERS));
+        }
+        return peers;
     }
 
     /**
-     * Gets the filename from the map with filenames mapped to their IDs
-     * @param FileID the ID of the file to find
-     * @return the name of the file with the given ID
+     * Get the download host this node advertises in responses
+     * @return the local address and download port
      */
-    public static String getFileNameFromMap(long FileID){
-        String result = null;
-        for (Map.Entry<String, Long> entry : fileMapping.entrySet()) {
-            String key = entry.getKey();
-            Long value = entry.getValue();
-            if(value == FileID){
-                result = key;
+    public static InetSocketAddress getDownloadHost(){
+        return downloadHost;
+    }
+
+    /**
+     * Get the number of results at which a DEPTHFIRST search stops
+     * @return the result target for depth first walks
+     */
+    public static int getWalkResultTarget(){
+        return WALK_RESULT_TARGET;
+    }
+
+    /**
+     * Start a new search from this node and send it to the connections
+     * chosen by its routing service
+     * @param searchString the search string to look for
+     * @param ttl the TTL of the search
+     * @param routing the routing service of the search
+     * @return the search that was sent
+     * @throws BadAttributeValueException if any search value is invalid
+     * @throws IOException if the search cannot be encoded
+     */
+    public static Search sendSearch(String searchString, int ttl,
+                                    RoutingService routing)
+            throws BadAttributeValueException, IOException {
+        return sendSearch(searchString, ttl, routing, null);
+    }
+
+    /**
+     * Start a new search from this node for one ring of an expanding ring
+     * search and send it to the connections chosen by its routing service
+     * @param searchString the search string to look for
+     * @param ttl the TTL of the search
+     * @param routing the routing service of the search
+     * @param ring the expanding ring search whose results the responses
+     *             count towards, or null
+     * @return the search that was sent
+     * @throws BadAttributeValueException if any search value is invalid
+     * @throws IOException if the search cannot be encoded
+     */
+    static Search sendSearch(String searchString, int ttl,
+                             RoutingService routing, ExpandingRingSearch ring)
+            throws BadAttributeValueException, IOException {
+        byte[] b = new byte[RANDOM_ID_LENGTH];
+        new Random().nextBytes(b);
+        Search search = new Search(b, ttl, routing, searchString);
+        searches.register(search, ring);
+        markSearchSeen(search.getID());
+        Frame frame = Frame.of(search);
+        List<Peer> peers;
+        if(routing == RoutingService.DEPTHFIRST && !searchString.isEmpty()){
+            //Each walker goes to a different neighbor, and the walk
+            //remembers them so it is never sent to one twice
+            SearchWalk walk = startWalk(search.getID(), null);
+            List<Peer> neighbors = getPeers();
+            peers = new ArrayList<>();
+            Peer p;
+            while(peers.size() < WALKERS
+                    && (p = walk.down(neighbors)) != null){
+                peers.add(p);
             }
         }
-        return result;
+        else{
+            peers = selectPeers(routing, null);
+        }
+        for(Peer p : peers){
+            LOGGER.log(Level.INFO, "Sending search value of "
+                    + searchString + " to Node connection with " + p);
+            p.send(frame);
+        }
+        return search;
     }
 
     /**
-     * Get the SearchMap instance from node
-     * @return the SearchMap instance
+     * Add a connection to a neighbor node and start its writer and reader
+     * @param socket the socket connected to the neighbor
+     * @return the new peer
      */
-    public static Map<String, String> getSearchMap(){
-        return searchMap;
+    public static Peer addConnection(Socket socket){
+        Peer peer = new Peer(socket);
+        addPeer(peer);
+        cachedService.submit(new SenderRunner(peer));
+        cachedService.submit(new ReceiveRunner(peer));
+        return peer;
     }
 
     /**
-     * Get the map instance responsible for mapping file names to their IDs
-     * @return the map instance with the file names mapped to their IDS
+     * Add a connection to the list of neighbor connections
+     * @param peer the connection to add
      */
-    public static Map<String, Long> getFileMapping() {
-        return fileMapping;
+    static void addPeer(Peer peer){
+        synchronized (connectionList){
+            connectionList.add(peer);
+        }
     }
 
     /**
-     * Get the ExecutorService instance from the node
-     * @return the ExecutorService instance from node
+     * Close a connection to a neighbor node and forget it
+     * @param peer the connection to remove
      */
-    public static ExecutorService getSingleService(){
-        return service;
+    public static void removeConnection(Peer peer){
+        synchronized (connectionList){
+            connectionList.remove(peer);
+        }
+        try {
+            peer.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Error closing connection to " + peer, e);
+        }
     }
 
     /**
-     * get cachedthread pool for node connections
-     * @return the cachedthreadpool executor service
+     * Close every connection to a neighbor node
      */
-    public static ExecutorService getCachedService(){
-        return cachedService;
+    private static void closeConnections(){
+        List<Peer> peers;
+        synchronized (connectionList){
+            peers = new ArrayList<>(connectionList);
+        }
+        for(Peer p : peers){
+            removeConnection(p);
+        }
     }
 
+    /**
+     * Count the results of a response to one of this node's searches and
+     * remember its host as a source of each file it lists
+     * @param response the response received
+     */
+    public static void recordResults(Response response){
+        SearchRegistry.OutstandingSearch search =
+                searches.get(response.getID());
+        if(search != null){
+            search.addResults(response.getResultList().size());
+            if(search.getRing() != null){
+                search.getRing().addResults(
+                        response.getResultList().size());
+            }
+        }
+        InetSocketAddress host = response.getResponseHost();
+        for(Result r : response.getResultList()){
+            StringBuilder fileID = new StringBuilder();
+            for(byte b : r.getFileID()){
+                fileID.append(String.format("%02X", b));
+            }
+            Set<SwarmDownload.Source> sources =
+                    ConcurrentHashMap.newKeySet();
+            Set<SwarmDownload.Source> known =
+                    fileSources.putIfAbsent(r.getFileName(), sources);
+            if(known != null){
+                sources = known;
+            }
+            if(sources.size() < MAX_SOURCES_PER_FILE){
+                sources.add(new SwarmDownload.Source(host.getAddress()
+                        .getHostAddress(), host.getPort(),
+                        fileID.toString(), r.getFileSize()));
+            }
+        }
+    }
 
     /**
-     * goes through list of searches to see if message is inside it
-     * @param r the message to look for
-     * @return true if the list has the message desired
+     * Get the hosts that advertised a file. If hosts disagree on its size,
+     * only those advertising the most common size are returned.
+     * @param fileName the name of the file
+     * @return the sources of the file, empty if none are known
      */
-    public synchronized static boolean checkSearchList(Message r){
-        for(Search s : Node.searches){
-            if(Arrays.equals(s.getID(), r.getID())){
-                return true;
+    public static List<SwarmDownload.Source> getSources(String fileName){
+        Set<SwarmDownload.Source> known = fileSources.get(fileName);
+        if(known == null){
+            return new ArrayList<>();
+        }
+        Map<Long, List<SwarmDownload.Source>> bySize = new HashMap<>();
+        for(SwarmDownload.Source source : known){
+            bySize.computeIfAbsent(source.getSize(),
+                    size -> new ArrayList<>()).add(source);
+        }
+        List<SwarmDownload.Source> best = new ArrayList<>();
+        for(List<SwarmDownload.Source> sources : bySize.values()){
+            if(sources.size() > best.size()){
+                best = sources;
             }
         }
-        return false;
+        return best;
+    }
+
+    /**
+     * Get the searches this node started
+     * @return the search registry
+     */
+    public static SearchRegistry getSearches(){
+        return searches;
+    }
+
+    /**
+     * Get the map between file names and their random file IDs
+     * @return the file ID map
+     */
+    public static FileIdMap getFileIds() {
+        return fileIds;
+    }
+
+    /**
+     * Get the cache of popular shared files
+     * @return the file cache
+     */
+    public static FileCache getFileCache() {
+        return fileCache;
+    }
+
+    /**
+     * Get the in-memory index of the shared directory
+     * @return the file index
+     */
+    public static FileIndex getFileIndex() {
+        return fileIndex;
+    }
+
+    /**
+     * Create an executor for blocking connection and download work. With
+     * -Dklab.threads=virtual every task runs on its own virtual thread, so
+     * no pool has to be sized; otherwise tasks run on platform threads.
+     * @param poolSize the most platform threads to use, or 0 for a cached
+     *                 pool with no bound
+     * @return the new executor
+     */
+    static ExecutorService newWorkerService(int poolSize){
+        if(VIRTUAL_THREADS){
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        return poolSize > 0 ? Executors.newFixedThreadPool(poolSize)
+                            : Executors.newCachedThreadPool();
+    }
+
+
+    /**
+     * Tell the user whether a download was queued
+     * @param transfer the queued download, or null if it was refused
+     * @param fileName the name of the file
+     */
+    private static void report(DownloadManager.Transfer transfer,
+                               String fileName){
+        if(transfer == null){
+            System.err.println(fileName + " is already being downloaded");
+        }
+        else{
+            System.out.println("Queued download #" + transfer.getID()
+                    + ": " + fileName);
+        }
+    }
+
+    /**
+     * Stop accepting neighbor connections on whichever transport is in use
+     * @param connectionRunner the blocking transport, or null
+     * @param nioTransport the non-blocking transport, or null
+     * @throws IOException if an I/O error occurs
+     */
+    private static void closeTransport(ConnectionRunner connectionRunner,
+                                       NioTransport nioTransport)
+            throws IOException {
+        if(connectionRunner != null){
+            connectionRunner.close();
+        }
+        if(nioTransport != null){
+            nioTransport.close();
+        }
     }
 
     /**
@@ -233,6 +648,29 @@ public class Node {
             return;
         }
 
+        try{
+            downloadHost = new InetSocketAddress(
+                    Inet4Address.getLocalHost().getHostAddress(),
+                    localDownloadPort);
+        }
+        catch(UnknownHostException e){
+            System.err.println("Unable to resolve the local host");
+            return;
+        }
+
+        RoutingService searchRouting;
+        try{
+            searchRouting = RoutingService.valueOf(System.getProperty(
+                    "klab.routing", RoutingService.BREADTHFIRST.name())
+                    .toUpperCase());
+        }
+        catch(IllegalArgumentException e){
+            System.err.println("Invalid routing service");
+            return;
+        }
+        boolean expandingRing = "ring".equalsIgnoreCase(
+                System.getProperty("klab.search.mode"));
+
         Path temp = Paths.get(directoryPath);
         if(Files.notExists(temp)){
             System.err.println("Invalid directory path");
@@ -240,14 +678,28 @@ public class Node {
             return;
         }
 
+        fileIndex = new FileIndex(temp, fileIds, fileCache);
+        fileIndex.start();
+        searches.start(scheduler, SEARCH_PURGE_PERIOD_MS);
+        scheduler.scheduleWithFixedDelay(Node::purgeCaches,
+                SEARCH_PURGE_PERIOD_MS, SEARCH_PURGE_PERIOD_MS,
+                TimeUnit.MILLISECONDS);
+
         DownloadService downloadService = new
                 DownloadService(localDownloadPort, directoryPath);
-        ConnectionRunner connectionRunner = new
-                ConnectionRunner(localNodePort, directoryPath,
-                                    localDownloadPort);
+        ConnectionRunner connectionRunner = null;
+        NioTransport nioTransport = null;
+        if("nio".equalsIgnoreCase(System.getProperty("klab.transport"))){
+            nioTransport = new NioTransport(localNodePort);
+            nioTransport.start();
+        }
+        else{
+            connectionRunner = new ConnectionRunner(localNodePort);
+            connectionRunner.start();
+        }
 
         downloadService.start();
-        connectionRunner.start();
+        DownloadManager downloadManager = new DownloadManager();
 
         while (!errorPresent) {
             try {
@@ -256,11 +708,11 @@ public class Node {
                 if (currentValue.equalsIgnoreCase("exit")) {
                     System.out.println("Exiting program...");
                     downloadService.close();
-                    connectionRunner.close();
-                    for(Socket s : connectionList){
-                        s.close();
-                    }
-                    service.close();
+                    downloadManager.close();
+                    closeTransport(connectionRunner, nioTransport);
+                    fileIndex.close();
+                    closeConnections();
+                    scheduler.shutdownNow();
                     cachedService.close();
                     scanner.close();
                     break;
@@ -268,23 +720,22 @@ public class Node {
                 String[] values = currentValue.split(" ");
                 if(values[0].equals("connect") &&
                                     values.length == CONNECTIONS_ARG_LENGTH) {
-                    Socket newConnection =
-                            new Socket(values[1], Integer.parseInt(values[2]));
-                    LOGGER.log(Level.INFO,
-                            "Entering in Node through socket: " +
-                        Inet4Address.getLocalHost().getHostAddress() +
-                        ":" + newConnection.getLocalPort());
-                    synchronized (connectionList){
-                        if(!connectionList.contains(newConnection)){
-                            connectionList.add(newConnection);
-                            cachedService.submit(new
-                                    ReceiveRunner(newConnection,
-                                    directoryPath, localDownloadPort));
-                        }
-                        else{
-                            LOGGER.log(Level.INFO,
-                                    "Connection already exists");
-                        }
+                    if(nioTransport != null){
+                        Peer peer = nioTransport.connect(values[1],
+                                Integer.parseInt(values[2]));
+                        LOGGER.log(Level.INFO,
+                                "Entering in Node through channel: " +
+                                peer.getSocket().getLocalAddress() + ":" +
+                                peer.getSocket().getLocalPort());
+                    }
+                    else{
+                        Socket newConnection = new Socket(values[1],
+                                Integer.parseInt(values[2]));
+                        LOGGER.log(Level.INFO,
+                                "Entering in Node through socket: " +
+                            downloadHost.getAddress().getHostAddress() +
+                            ":" + newConnection.getLocalPort());
+                        addConnection(newConnection);
                     }
                 }
                 else if(values[0].equals("connect") &&
@@ -298,19 +749,6 @@ public class Node {
                             "Attempting download server " +
                                     "connection through socket: " +
                             values[1] + ":" + values[2]);
-
-                    Socket download = new Socket(values[1],
-                            Integer.parseInt(values[2]));
-
-                    LOGGER.log(Level.INFO, "Established " +
-                            "download server connection through socket: " +
-                            download.getInetAddress() +
-                            ":" + download.getPort());
-
-                    MessageOutput downloadOutStream = new
-                            MessageOutput(download.getOutputStream());
-
-
                     LOGGER.log(Level.INFO,
                             "Attempting to download file with fileID: " +
                             values[3]);
@@ -319,60 +757,46 @@ public class Node {
                         System.err.println("Bad File ID: " + values[3]);
                     }
                     else{
-                        downloadOutStream.writeBytes((values[3]+"\n").
-                                getBytes(StandardCharsets.US_ASCII));
-                        downloadOutStream.flush();
-                        MessageInput downloadInStream =
-                                new MessageInput(download.getInputStream());
-                        byte[] okCheck = downloadInStream.
-                                readNBytes(4);
-
-                        if(Arrays.equals(okCheck,
-                                new byte[]{'O', 'K', '\n', '\n'})){
-                            String filePath =
-                                    directoryPath + "\\" + values[4];
-                            File df = new File(filePath);
-                            synchronized(df){
-                                FileOutputStream fOut;
-                                if(df.exists()){
-                                    LOGGER.log(Level.WARNING,
-                                            "File already exists, " +
-                                                    "overwriting contents");
-                                }
-                                fOut = new FileOutputStream(df);
-                                download.getInputStream().transferTo(fOut);
-                                fOut.close();
-                            }
-                        }
-                        else{
-                            byte[] errorPadding =
-                                    downloadInStream.
-                                            readNBytes(DOWNLOAD_ERROR_MES_LEN);
-                            errorPadding = downloadInStream.readBytes();
-                            System.err.println(
-                                    new String(errorPadding,
-                                            StandardCharsets.US_ASCII));
-                        }
-                        download.close();
+                        report(downloadManager.download(values[1],
+                                Integer.parseInt(values[2]), values[3],
+                                Paths.get(directoryPath, values[4])),
+                                values[4]);
+                    }
+                }
+                else if(values[0].equals("swarm") &&
+                        values.length == SWARM_ARG_LENGTH){
+                    List<SwarmDownload.Source> sources =
+                            getSources(values[1]);
+                    if(sources.isEmpty()){
+                        System.err.println("No sources for " + values[1]
+                                + ": search for it first");
+                    }
+                    else{
+                        LOGGER.log(Level.INFO, "Swarm downloading "
+                                + values[1] + " from " + sources);
+                        report(downloadManager.swarm(sources,
+                                Paths.get(directoryPath, values[1])),
+                                values[1]);
+                    }
+                }
+                else if(values[0].equals("downloads") && values.length == 1){
+                    for(DownloadManager.Transfer t :
+                            downloadManager.getTransfers()){
+                        System.out.println(t);
                     }
                 }
                 else if(values.length == 1){
                     LOGGER.log(Level.INFO,
                             "Entered search value of " + currentValue);
-                    byte[] b = new byte[RANDOM_ID_LENGTH];
-                    new Random().nextBytes(b);
-                    Search search = new Search(b, ARBITRARY_TTL,
-                        RoutingService.BREADTHFIRST, currentValue);
-                    searches.add(search);
-                    synchronized (connectionList){
-                        for(Socket s : connectionList){
-                            LOGGER.log(Level.INFO, "Sending search value of "
-                                    + currentValue + " to Node connection with "
-                                    + s.getInetAddress() + ":" + s.getPort());
-                            service.submit(new SenderRunner(
-                                    search,
-                                    new MessageOutput(s.getOutputStream())));
-                        }
+                    if(expandingRing){
+                        new ExpandingRingSearch(currentValue, searchRouting,
+                                RING_START_TTL, RING_GROWTH, ARBITRARY_TTL,
+                                RING_RESULT_TARGET, RING_TIMEOUT_MS,
+                                scheduler).run();
+                    }
+                    else{
+                        sendSearch(currentValue, ARBITRARY_TTL,
+                                searchRouting);
                     }
                 }
 
@@ -380,12 +804,12 @@ public class Node {
             catch (RuntimeException | SocketException e) {
                 LOGGER.log(Level.SEVERE, "Unable to communicate: "
                                             + e.getLocalizedMessage(), e);
-                for(Socket s : connectionList){
-                    s.close();
-                }
+                closeConnections();
                 downloadService.close();
-                connectionRunner.close();
-                service.close();
+                downloadManager.close();
+                closeTransport(connectionRunner, nioTransport);
+                fileIndex.close();
+                scheduler.shutdownNow();
                 cachedService.close();
                 scanner.close();
                 break;
@@ -0,0 +1,152 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import klab.serialization.*;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A connection to a neighbor node with its own bounded queue of outbound
+ * frames. The queue is drained by the connection's own SenderRunner, so a
+ * slow neighbor only holds up its own frames. Relayed frames are dropped
+ * when the queue is full, but responses this node generates wait for
+ * room, and a neighbor that stops reading them is disconnected.
+ */
+public class Peer {
+    /**
+     * most frames waiting to be sent to one neighbor, set with
+     * -Dklab.peer.queue
+     */
+    private static final int QUEUE_CAPACITY =
+            Math.max(1, Integer.getInteger("klab.peer.queue", 1024));
+    /**
+     * milliseconds a response waits for room in a full queue before the
+     * neighbor is disconnected, set with -Dklab.peer.wait
+     */
+    private static final long RESPONSE_WAIT_MS =
+            Math.max(1, Long.getLong("klab.peer.wait", 5000));
+
+    /**
+     * the socket connected to the neighbor
+     */
+    private final Socket socket;
+    /**
+     * frames waiting to be written to the neighbor
+     */
+    private final BlockingQueue<Frame> outbound =
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * constructor for the Peer class
+     * @param socket the socket connected to the neighbor
+     */
+    Peer(Socket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Queue a frame to be sent to the neighbor. Frames with no TTL left
+     * are not sent, and frames are dropped if the neighbor has fallen so
+     * far behind that its queue is full.
+     * @param frame the frame to send
+     * @return true if the frame was queued
+     */
+    public boolean send(Frame frame) {
+        if (frame.getTTL() < 1 || socket.isClosed()) {
+            return false;
+        }
+        if (!outbound.offer(frame)) {
+            Logger.getLogger("Node.Log").log(Level.WARNING,
+                    "Outbound queue full, dropping frame to " + this);
+            return false;
+        }
+        queued();
+        return true;
+    }
+
+    /**
+     * Queue a response this node generated to be sent to the neighbor.
+     * If the queue is full the caller waits for the neighbor to catch up,
+     * and the neighbor is disconnected if it does not make room in time.
+     * Frames with no TTL left are not sent.
+     * @param frame the frame to send
+     * @return true if the frame was queued
+     */
+    public boolean respond(Frame frame) {
+        if (frame.getTTL() < 1 || socket.isClosed()) {
+            return false;
+        }
+        try {
+            if (outbound.offer(frame, RESPONSE_WAIT_MS,
+                    TimeUnit.MILLISECONDS)) {
+                queued();
+                return true;
+            }
+            Logger.getLogger("Node.Log").log(Level.WARNING,
+                    "Neighbor stopped reading responses, closing " + this);
+            Node.removeConnection(this);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Called after a frame has been queued
+     */
+    void queued() {
+
+    }
+
+    /**
+     * Get the queue of frames waiting to be sent
+     * @return the outbound queue
+     */
+    BlockingQueue<Frame> getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Get the socket connected to the neighbor
+     * @return the socket
+     */
+    public Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Check whether the connection has been closed
+     * @return true if the connection is closed
+     */
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    /**
+     * Close the connection and discard any frames still waiting
+     * @throws IOException if an I/O error occurs
+     */
+    public void close() throws IOException {
+        outbound.clear();
+        socket.close();
+    }
+
+    /**
+     * Get the address of the neighbor
+     * @return the neighbor address and port
+     */
+    @Override
+    public String toString() {
+        return socket.getInetAddress() + ":" + socket.getPort();
+    }
+}
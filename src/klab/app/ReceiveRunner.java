@@ -7,13 +7,12 @@ package klab.app;
 
 import klab.serialization.*;
 
-import java.io.File;
 import java.io.IOException;
-import java.net.Inet4Address;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.sql.SQLSyntaxErrorException;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,69 +26,34 @@ public class ReceiveRunner implements Runnable {
      */
     private static final int FILE_ID_RANDOM_LEN = 4;
     /**
-     * the largest unsigned integer value
+     * milliseconds of matching after which the first response to a
+     * search is sent even if it is not full, set with
+     * -Dklab.search.firstpage
      */
-    private static final long LARGEST_UNSIGNED_INT = 4294967296L;
+    private static final long FIRST_PAGE_MS =
+            Math.max(0, Long.getLong("klab.search.firstpage", 50));
     /**
-     * the smallest unsigned integer value
+     * keeps responses printed by different connections from interleaving;
+     * a lock rather than a monitor so a virtual thread blocked on console
+     * output does not pin its carrier thread
      */
-    private static final long SMALLEST_UNSIGNED_INT = 0L;
+    private static final ReentrantLock PRINT_LOCK = new ReentrantLock();
     /**
-     * The socket to which the messages are decoded and encoded to
-     */
-    private final Socket socket;
-    /**
-     * The directory path given to search for the files
-     */
-    private final String directoryPath;
-
-    /**
-     * the download port for the node
+     * The peer whose socket the messages are decoded from
      */
-    private final int localDownloadPort;
-
+    private final Peer peer;
     /**
-     * a map of file names to their random file IDs
+     * The socket to which the messages are decoded and encoded to
      */
-    private final Map<String, Long> fileMapping;
-
-
-
-
+    private final Socket socket;
 
     /**
      * the constructor for the receiveRunner object
-     * @param socket the socket to communicate with
-     * @param directoryPath the directory path to the files to use
-     * @param localDownloadPort the download port of the Node
-     */
-    ReceiveRunner(Socket socket, String directoryPath, int localDownloadPort) {
-        this.socket = socket;
-        this.directoryPath = directoryPath;
-        this.localDownloadPort = localDownloadPort;
-        this.fileMapping = Node.getFileMapping();
-        updateMapping();
-    }
-
-    /**
-     * A function to update the mapping of random file ids to their names
-     * in case the current directory changes its contents
+     * @param peer the peer to communicate with
      */
-    public void updateMapping() {
-        try {
-            File directory = new File(directoryPath);
-            File[] files = directory.listFiles();
-            for (File file : files) {
-                if (!fileMapping.containsKey(file.getName())) {
-                    long randomID = generateRandomFileID(fileMapping);
-                    fileMapping.put(file.getName(), randomID);
-                }
-            }
-        } catch (NullPointerException | SecurityException e) {
-            Logger.getLogger("Node.Log").log(Level.WARNING,
-                    "Error with the file system: "
-                            + e.getLocalizedMessage(), e);
-        }
+    ReceiveRunner(Peer peer) {
+        this.peer = peer;
+        this.socket = peer.getSocket();
     }
 
     /**
@@ -98,11 +62,13 @@ public class ReceiveRunner implements Runnable {
      * @param response the response to be printed to the screen
      */
     public void printResponse(Response response) {
-        if (Node.getSearchMap()
-                .containsKey(Arrays.toString(response.getID()))) {
-            synchronized (System.out) {
-                System.out.println("Search response for " + Node.getSearchMap()
-                        .get(Arrays.toString(response.getID())) + ":");
+        SearchRegistry.OutstandingSearch search =
+                Node.getSearches().get(response.getID());
+        if (search != null) {
+            PRINT_LOCK.lock();
+            try {
+                System.out.println("Search response for "
+                        + search.getSearchString() + ":");
                 System.out.println("Download host: " +
                         response.getResponseHost().getAddress() + ":"
                         + response.getResponseHost().getPort());
@@ -119,6 +85,8 @@ public class ReceiveRunner implements Runnable {
                     formatted.append(" bytes)\n");
                 }
                 System.out.println(formatted);
+            } finally {
+                PRINT_LOCK.unlock();
             }
         }
     }
@@ -138,43 +106,6 @@ public class ReceiveRunner implements Runnable {
         return value;
     }
 
-    /**
-     * Generate a random file id and avoid collisions if encountered
-     *
-     * @param map the map holding the file names and their random file ids
-     * @return the randomly generated file id
-     */
-    public long generateRandomFileID(Map<String, Long> map) {
-        long otherID = (long) (new Random().nextDouble()
-                * LARGEST_UNSIGNED_INT + 1);
-        for (long value : map.values()) {
-            if (value == otherID) {
-                if (otherID == LARGEST_UNSIGNED_INT) {
-                    otherID = SMALLEST_UNSIGNED_INT;
-                } else {
-                    otherID++;
-                }
-            }
-        }
-        return otherID;
-    }
-
-    /**
-     * synchronized function for handling socket input
-     * @param mi the message input instance with the socket inputstream
-     * @return message from being decoded from the input stream
-     * @throws IOException if an I/O error occurs
-     * @throws BadAttributeValueException if an error with the message format
-     *                                    occurs.
-     */
-    static Message getMessage(MessageInput mi) throws
-                        IOException, BadAttributeValueException {
-        MessageInput socketInput = mi;
-        Message message = Message.decode(socketInput);
-        return message;
-    }
-
-
     /**
      * Run method within the ReceiveRunner instance to decode either
      * a search or a response instance to the socket inputStream
@@ -186,81 +117,7 @@ public class ReceiveRunner implements Runnable {
                     new MessageInput(socket.getInputStream());
             while (!socket.isClosed()) {
                 try {
-                    updateMapping();
-                    Message message = getMessage(socketInput);
-                    message.setTTL(message.getTTL()-1);
-                    //If message is a response instance
-                    if (message instanceof Response response) {
-                        if(Node.checkSearchList(response)){
-                            logger.log(Level.INFO, "Received: " + response);
-                            printResponse(response);
-                        }
-                        else{
-                            List<Socket> sockList;
-                            synchronized (Node.connectionList){
-                                sockList = new ArrayList<>
-                                        (Node.connectionList);
-                            }
-                            for(Socket s : sockList){
-                                if(s != socket){
-                                    Node.getSingleService().submit(
-                                            new SenderRunner(
-                                            response,
-                                            new MessageOutput
-                                                    (s.getOutputStream())));
-                                }
-                            }
-                        }
-                    }
-                    //If the message is a search instance
-                    else if (message instanceof Search search) {
-                        Response response = new Response(search.getID(),
-                                search.getTTL(), RoutingService.BREADTHFIRST,
-                                new InetSocketAddress(Inet4Address.
-                                        getLocalHost().getHostAddress(),
-                                        localDownloadPort));
-
-                        List<Socket> sockList;
-                        synchronized (Node.connectionList){
-                            sockList = new ArrayList<>(Node.connectionList);
-                        }
-                        for(Socket s : sockList){
-                            if(s != socket){
-                                Node.getSingleService().submit(new
-                                        SenderRunner(
-                                        search,
-                                        new MessageOutput(s.
-                                                getOutputStream())));
-                            }
-                        }
-
-                        File directory = new File(directoryPath);
-                        File[] files = directory.listFiles((dir, name) ->
-                                name.contains(search.getSearchString()));
-                        if (!search.getSearchString().isEmpty()
-                                                &&
-                                Objects.requireNonNull(files).length > 0) {
-                            logger.log(Level.INFO, "Received: " + search);
-                            for (File file : files) {
-                                if (fileMapping.containsKey(file.getName())) {
-                                    response.addResult(
-                                            new Result(convertToByteArray(
-                                                    fileMapping.get(
-                                                            file.getName())),
-                                                    file.length(),
-                                                    file.getName()));
-                                }
-                            }
-                            Node.getSingleService().submit(new SenderRunner(
-                                    response,
-                                    new MessageOutput(socket.getOutputStream())));
-                        }
-                        else if(Objects.equals(search.getSearchString(), "")){
-                            Node.getSingleService().submit(new SenderRunner(
-                                    response,
-                                    new MessageOutput(socket.getOutputStream())));
-                        }
-                    }
+                    handle(Frame.read(socketInput));
                 } catch (BadAttributeValueException e) {
                     logger.log(Level.WARNING,
                             "Invalid message: " + e.getLocalizedMessage(), e);
@@ -272,6 +129,196 @@ public class ReceiveRunner implements Runnable {
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            Node.removeConnection(peer);
+        }
+    }
+
+    /**
+     * Handle one frame received from the peer: relay responses to searches
+     * started elsewhere, print responses to this node's searches, and
+     * forward and answer searches
+     * @param received the frame received from the peer
+     * @throws IOException if a reply cannot be built
+     * @throws BadAttributeValueException if the frame fails validation
+     */
+    void handle(Frame received) throws IOException,
+                                       BadAttributeValueException {
+        Logger logger = Logger.getLogger("Node.Log");
+        if (received.isResponse()) {
+            SearchWalk walk = Node.getWalk(received.getID());
+            if (walk != null) {
+                walk.answeredBy(peer);
+            }
+        }
+        //If message is a response to a search this node did not
+        //start, relay the raw frame back along the path its
+        //search took without decoding its results
+        if (received.isResponse() &&
+                Node.getSearches().get(received.getID()) == null) {
+            Frame frame = received.withTTL(received.getTTL()-1);
+            Peer back = Node.getSearchRoute(received.getID());
+            if (back == null || back == peer ||
+                    back.isClosed()) {
+                logger.log(Level.FINE,
+                        "No route for: " + received);
+                return;
+            }
+            back.send(frame);
+            return;
+        }
+        if (received.isSearch()) {
+            //Drop searches that already reached this node by
+            //another path before decoding, forwarding or
+            //matching them
+            if (!Node.markSearchSeen(received.getID())) {
+                if (received.isDepthFirst()) {
+                    continueWalk(received);
+                    return;
+                }
+                logger.log(Level.FINE,
+                        "Dropping duplicate: " + received);
+                return;
+            }
+            Node.addSearchRoute(received.getID(), peer);
+        }
+        Message message = received.decode();
+        message.setTTL(message.getTTL()-1);
+        //If message is a response instance
+        if (message instanceof Response response) {
+            logger.log(Level.INFO, "Received: " + response);
+            Node.recordResults(response);
+            printResponse(response);
+        }
+        //If the message is a search instance
+        else if (message instanceof Search search) {
+            InetSocketAddress host = Node.getDownloadHost();
+
+            //A depth first walk only moves on once every local match
+            //has been found and sent
+            boolean walk = search.getRoutingService() ==
+                    RoutingService.DEPTHFIRST &&
+                    !search.getSearchString().isEmpty();
+            SearchWalk state = null;
+            if (walk) {
+                state = Node.startWalk(search.getID(), peer);
+            }
+            else {
+                forward(search);
+            }
+            if (search.getSearchString().isEmpty()) {
+                peer.respond(Frame.of(new Response(search.getID(),
+                        search.getTTL(), search.getRoutingService(), host)));
+                return;
+            }
+            logger.log(Level.INFO, "Received: " + search);
+            int matches = sendMatches(search, host);
+            if (walk && matches < Node.getWalkResultTarget()) {
+                //Results found here are reported back up so the node
+                //that started the search can check its running total
+                Peer next = matches == 0 ? state.down(Node.getPeers())
+                                         : null;
+                (next != null ? next : peer).send(Frame.of(search));
+            }
+        }
+    }
+
+    /**
+     * Pass on a DEPTHFIRST search that reached this node again: sent back
+     * from a neighbor it was passed to, sent down again from above, or
+     * arriving through a cycle
+     * @param received the search frame
+     * @throws BadAttributeValueException if the frame's TTL is invalid
+     */
+    private void continueWalk(Frame received)
+            throws BadAttributeValueException {
+        SearchWalk walk = Node.getWalk(received.getID());
+        if (walk == null) {
+            Logger.getLogger("Node.Log").log(Level.FINE,
+                    "Dropping duplicate: " + received);
+            return;
+        }
+        boolean enough = false;
+        if (walk.isOrigin()) {
+            SearchRegistry.OutstandingSearch search =
+                    Node.getSearches().get(received.getID());
+            enough = search == null ||
+                    search.getResults() >= Node.getWalkResultTarget();
+        }
+        Peer next = walk.next(peer, Node.getPeers(), enough);
+        if (next == null) {
+            Logger.getLogger("Node.Log").log(Level.INFO,
+                    "Walk ended: " + received);
+            return;
+        }
+        next.send(received.withTTL(received.getTTL() - 1));
+    }
+
+    /**
+     * Forward a search to the peers its routing service selects
+     * @param search the search to forward
+     * @throws IOException if the search cannot be encoded
+     */
+    private void forward(Search search) throws IOException {
+        Frame frame = Frame.of(search);
+        for (Peer p : Node.selectPeers(search.getRoutingService(), peer)) {
+            p.send(frame);
+        }
+    }
+
+    /**
+     * Answer a search with the local matches as they are found. A
+     * response holds at most 255 results and 65535 payload bytes, so the
+     * matches are split across as many responses with the search's ID as
+     * it takes, and each is sent as soon as it is full. The first response
+     * is also sent once matching has run past a short deadline, checked as
+     * each match is found, so the first results do not wait for the rest.
+     * Matching stops early if the neighbor is disconnected for not
+     * reading the responses.
+     * @param search the search to answer
+     * @param host the download host to advertise
+     * @return the number of matches sent
+     * @throws IOException if a response cannot be built
+     * @throws BadAttributeValueException if a match cannot be encoded
+     */
+    private int sendMatches(Search search, InetSocketAddress host)
+            throws IOException, BadAttributeValueException {
+        Iterator<FileIndex.IndexedFile> files = Node.getFileIndex()
+                .stream(search.getSearchString()).iterator();
+        long deadline = System.nanoTime() + FIRST_PAGE_MS * 1_000_000;
+        Response page = null;
+        int matches = 0;
+        int pages = 0;
+        while (files.hasNext() && !peer.isClosed()) {
+            FileIndex.IndexedFile file = files.next();
+            Result result = new Result(convertToByteArray(file.getID()),
+                    file.getSize(), file.getName());
+            if (page != null && !page.fits(result)) {
+                peer.respond(Frame.of(page));
+                pages++;
+                page = null;
+            }
+            if (page == null) {
+                page = new Response(search.getID(), search.getTTL(),
+                        search.getRoutingService(), host);
+            }
+            page.addResult(result);
+            matches++;
+            if (pages == 0 && System.nanoTime() - deadline >= 0) {
+                peer.respond(Frame.of(page));
+                pages++;
+                page = null;
+            }
+        }
+        if (page != null) {
+            peer.respond(Frame.of(page));
+            pages++;
+        }
+        if (matches > 0) {
+            Logger.getLogger("Node.Log").log(Level.INFO, "Answered "
+                    + search + " with " + matches + " results in "
+                    + pages + " responses");
         }
+        return matches;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import klab.serialization.Search;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SearchRegistry class which remembers the searches this node started so
+ * responses to them can be told apart from responses to be relayed.
+ * Searches are keyed by their message ID and looked up without locking.
+ * Each search is forgotten a fixed time after it was sent; a timer purges
+ * expired searches so the registry shrinks even when no new searches are
+ * started.
+ */
+public class SearchRegistry {
+    /**
+     * A search this node started
+     */
+    public static final class OutstandingSearch {
+        /**
+         * the search string that was looked for
+         */
+        private final String searchString;
+        /**
+         * the expanding ring search the search is a ring of, or null
+         */
+        private final ExpandingRingSearch ring;
+        /**
+         * the number of results received for the search
+         */
+        private final AtomicInteger results = new AtomicInteger();
+
+        /**
+         * constructor for the OutstandingSearch class
+         * @param searchString the search string that was looked for
+         * @param ring the expanding ring search the search is a ring of,
+         *             or null
+         */
+        OutstandingSearch(String searchString, ExpandingRingSearch ring) {
+            this.searchString = searchString;
+            this.ring = ring;
+        }
+
+        /**
+         * Get the search string that was looked for
+         * @return the search string
+         */
+        public String getSearchString() {
+            return searchString;
+        }
+
+        /**
+         * Get the expanding ring search the search is a ring of
+         * @return the expanding ring search, or null if the search was
+         *         sent on its own
+         */
+        ExpandingRingSearch getRing() {
+            return ring;
+        }
+
+        /**
+         * Count results received for the search
+         * @param count the number of results in a response
+         */
+        void addResults(int count) {
+            results.addAndGet(count);
+        }
+
+        /**
+         * Get the number of results received for the search
+         * @return number of results
+         */
+        public int getResults() {
+            return results.get();
+        }
+    }
+
+    /**
+     * the outstanding searches by message ID
+     */
+    private final ExpiringCache<MessageKey, OutstandingSearch> searches;
+
+    /**
+     * constructor for the SearchRegistry class
+     * @param maxSize the most searches remembered at once
+     * @param timeToLive how long a search is remembered in milliseconds
+     */
+    public SearchRegistry(int maxSize, long timeToLive) {
+        this.searches = new ExpiringCache<>(maxSize, timeToLive,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Purge expired searches periodically
+     * @param scheduler the scheduler to run the purge with
+     * @param periodMillis milliseconds between purges
+     */
+    public void start(ScheduledExecutorService scheduler,
+                      long periodMillis) {
+        scheduler.scheduleWithFixedDelay(searches::purge, periodMillis,
+                periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Remember a search this node is about to send
+     * @param search the search
+     * @param ring the expanding ring search the search is a ring of, or
+     *             null
+     */
+    public void register(Search search, ExpandingRingSearch ring) {
+        searches.putIfAbsent(MessageKey.of(search.getID()),
+                new OutstandingSearch(search.getSearchString(), ring));
+    }
+
+    /**
+     * Get the search this node started with a message ID
+     * @param id the message ID
+     * @return the search, or null if this node did not start it or it has
+     *         expired
+     */
+    public OutstandingSearch get(byte[] id) {
+        return searches.get(MessageKey.of(id));
+    }
+
+    /**
+     * Get the number of searches remembered, including any that have
+     * expired but not yet been purged
+     * @return number of searches
+     */
+    public int size() {
+        return searches.size();
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SearchWalk class which holds what one node knows about a DEPTHFIRST
+ * search walking through it. The walk is a single search frame passed from
+ * node to node; a frame for a search the node has already seen is the walk
+ * coming back to it. Each node remembers which neighbors already hold the
+ * walk so it only sends the walk on to new ones. A walk that reaches a
+ * node twice through a cycle is sent straight back, and a node with no new
+ * neighbors left hands the walk back to the node it came from.
+ * Whenever part of the walk has found results, the walk is handed back up
+ * to the node that started the search, which compares its running total
+ * against the result target and either ends the walk or sends it back
+ * down the same path to carry on.
+ */
+public class SearchWalk {
+    /**
+     * the neighbor the walk first arrived from, or null at the node that
+     * started the search
+     */
+    private final Peer parent;
+    /**
+     * neighbors known to hold the walk
+     */
+    private final Set<Peer> visited = new HashSet<>();
+    /**
+     * neighbors this node has sent the walk down to
+     */
+    private final Set<Peer> children = new HashSet<>();
+    /**
+     * children that sent back responses since the walk last went down to
+     * them
+     */
+    private final Set<Peer> answered = new HashSet<>();
+    /**
+     * the child the walk continues through when it is sent back down, or
+     * null to try a new neighbor
+     */
+    private Peer child;
+
+    /**
+     * constructor for the SearchWalk class
+     * @param parent the neighbor the walk arrived from, or null if this
+     *               node started the search
+     */
+    public SearchWalk(Peer parent) {
+        this.parent = parent;
+        if (parent != null) {
+            visited.add(parent);
+        }
+    }
+
+    /**
+     * Returns whether this node started the search
+     * @return true if the walk did not arrive from a neighbor
+     */
+    public boolean isOrigin() {
+        return parent == null;
+    }
+
+    /**
+     * Get the neighbor the walk first arrived from
+     * @return the neighbor, or null if this node started the search
+     */
+    public Peer getParent() {
+        return parent;
+    }
+
+    /**
+     * Record that a neighbor sent back a response to the search
+     * @param from the neighbor
+     */
+    public synchronized void answeredBy(Peer from) {
+        if (children.contains(from)) {
+            answered.add(from);
+        }
+    }
+
+    /**
+     * Choose a random neighbor that does not hold the walk yet and record
+     * the walk as sent down to it
+     * @param neighbors the current connections of this node
+     * @return the neighbor to send the walk to, or null if every neighbor
+     *         holds it already
+     */
+    public synchronized Peer down(List<Peer> neighbors) {
+        List<Peer> open = new ArrayList<>();
+        for (Peer p : neighbors) {
+            if (!visited.contains(p)) {
+                open.add(p);
+            }
+        }
+        if (open.isEmpty()) {
+            child = null;
+            return null;
+        }
+        Peer next = open.get(ThreadLocalRandom.current()
+                .nextInt(open.size()));
+        visited.add(next);
+        children.add(next);
+        answered.remove(next);
+        child = next;
+        return next;
+    }
+
+    /**
+     * Decide where the walk goes after it arrives again from a neighbor
+     * @param from the neighbor the walk arrived from
+     * @param neighbors the current connections of this node
+     * @param enough true if this node started the search and has received
+     *               enough results
+     * @return the neighbor to send the walk to, or null to end it
+     */
+    public synchronized Peer next(Peer from, List<Peer> neighbors,
+                                  boolean enough) {
+        if (from == parent) {
+            //Sent back down from above to carry on where it left off
+            if (child != null) {
+                answered.remove(child);
+                return child;
+            }
+            return advance(neighbors);
+        }
+        if (!children.contains(from)) {
+            //A neighbor reached this node again through a cycle
+            visited.add(from);
+            return from;
+        }
+        boolean found = answered.remove(from);
+        if (isOrigin()) {
+            if (enough) {
+                return null;
+            }
+            return found ? from : advance(neighbors);
+        }
+        if (found) {
+            //Only the node that started the search knows the running
+            //total, so results below this node are reported up to it
+            child = from;
+            return parent;
+        }
+        return advance(neighbors);
+    }
+
+    /**
+     * Send the walk to a new neighbor, or back up when there is none
+     * @param neighbors the current connections of this node
+     * @return the neighbor to send the walk to, or null to end it
+     */
+    private Peer advance(List<Peer> neighbors) {
+        Peer next = down(neighbors);
+        return next != null ? next : parent;
+    }
+}
@@ -8,81 +8,75 @@ package klab.app;
 import klab.serialization.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * SenderRunner class which implements runnable to encode
- * Response and Search objects to the socket
+ * SenderRunner class which implements runnable to write the already
+ * encoded Response and Search frames queued for one peer to its socket.
+ * Frames that are queued together are written together and flushed once.
  */
 public class SenderRunner implements Runnable{
     /**
-     * Message instance to be encoded
+     * most frames written before a flush
      */
-    private final Message message;
+    private static final int MAX_BATCH = 64;
     /**
-     * The messageOutput Instance to be used with the socket
+     * how long the writer waits for a frame before checking whether the
+     * connection was closed
      */
-    private final MessageOutput socketOutput;
-
+    private static final long POLL_TIMEOUT_MS = 1000;
 
     /**
-     * Constuctor for the SenderRunner class
-     * @param message the message instance to be encoded
-     * @param socketOutput the MessageOutput instance to be encoded to
+     * The peer whose queued frames are written
      */
-    SenderRunner(Message message, MessageOutput socketOutput){
-        this.message = message;
-        this.socketOutput = socketOutput;
-    }
+    private final Peer peer;
 
-    /**
-     * synchronized function for sending searches
-     * @param s the search to send
-     * @throws IOException if an I/O error occurs
-     */
-    synchronized void sendSearch(Search s) throws IOException {
-        s.encode(socketOutput);
-    }
 
     /**
-     * synchronized function for sending responses
-     * @param r the response to send
-     * @throws IOException if an I/O error occurs
+     * Constuctor for the SenderRunner class
+     * @param peer the peer whose queued frames are written
      */
-    synchronized void sendResponse(Response r) throws IOException {
-        r.encode(socketOutput);
+    SenderRunner(Peer peer){
+        this.peer = peer;
     }
 
     /**
-     * Run method within the SenderRunner instance to encode either
-     * a search or a response instance to the socket outputStream
+     * Run method within the SenderRunner instance to write the search and
+     * response frames queued for the peer to its socket outputStream until
+     * the connection closes
      */
      public void run() {
+        Logger logger = Logger.getLogger("Node.Log");
+        List<Frame> batch = new ArrayList<>(MAX_BATCH);
         try {
-//            message.setTTL(message.getTTL()-1);
-            if (message instanceof Search search && message.getTTL() >= 1) {
-                sendSearch(search);
-                Logger.getLogger("Node.Log")
-                                .log(Level.INFO, "Sending: " + search);
-                Node.addToSearchMap(search);
-            }
-            else if (message instanceof Response response
-                                && message.getTTL() >= 1){
-                sendResponse(response);
-                Logger.getLogger("Node.Log")
-                                .log(Level.INFO, "Sending: " + response);
+            MessageOutput socketOutput = new MessageOutput(
+                    peer.getSocket().getOutputStream(), MAX_BATCH, 0);
+            while (!peer.isClosed()) {
+                Frame first = peer.getOutbound().poll(POLL_TIMEOUT_MS,
+                        TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                peer.getOutbound().drainTo(batch, MAX_BATCH - 1);
+                for (Frame frame : batch) {
+                    frame.write(socketOutput);
+                    logger.log(Level.INFO, "Sending: " + frame);
+                }
+                socketOutput.flush();
+                batch.clear();
             }
         } catch (IOException e) {
-            Logger logger = Logger.getLogger("Node.Log");
             logger.log(Level.WARNING,
                     "Unable to communicate: " + e.getMessage(), e);
+            Node.removeConnection(peer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-//        catch (BadAttributeValueException e) {
-//            Logger logger = Logger.getLogger("Node.Log");
-//            logger.log(Level.WARNING, "Error with setting the TTL" +
-//                        e.getMessage(), e);
-//        }
     }
 
 }
@@ -0,0 +1,113 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * N-gram index over a set of names answering String.contains queries.
+ * Every substring of up to GRAM_LENGTH characters of each name has a
+ * posting list of the names containing it. Short queries are answered
+ * straight from their posting list; longer queries take the shortest
+ * posting list among their grams as candidates and verify each with
+ * contains.
+ */
+public class SubstringIndex {
+    /**
+     * the longest gram indexed
+     */
+    private static final int GRAM_LENGTH = 3;
+
+    /**
+     * every indexed name
+     */
+    private final Set<String> names = ConcurrentHashMap.newKeySet();
+    /**
+     * names keyed by each gram they contain
+     */
+    private final Map<String, Set<String>> postings =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Add a name to the index
+     * @param name the name to add
+     */
+    public void add(String name) {
+        if (!names.add(name)) {
+            return;
+        }
+        for (String gram : grams(name)) {
+            postings.computeIfAbsent(gram,
+                    g -> ConcurrentHashMap.newKeySet()).add(name);
+        }
+    }
+
+    /**
+     * Remove a name from the index
+     * @param name the name to remove
+     */
+    public void remove(String name) {
+        if (!names.remove(name)) {
+            return;
+        }
+        for (String gram : grams(name)) {
+            postings.computeIfPresent(gram, (g, set) -> {
+                set.remove(name);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    /**
+     * Get a lazy stream of the indexed names containing the query, with
+     * the same results as calling contains on each name; each candidate
+     * is only checked with contains once the stream reaches it
+     * @param query the substring to look for
+     * @return the names containing the query
+     */
+    public Stream<String> stream(String query) {
+        if (query.isEmpty()) {
+            return names.stream();
+        }
+        if (query.length() <= GRAM_LENGTH) {
+            return postings.getOrDefault(query, Collections.emptySet())
+                    .stream();
+        }
+        Set<String> candidates = null;
+        for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+            Set<String> posting = postings.get(
+                    query.substring(i, i + GRAM_LENGTH));
+            if (posting == null) {
+                return Stream.empty();
+            }
+            if (candidates == null || posting.size() < candidates.size()) {
+                candidates = posting;
+            }
+        }
+        return candidates.stream().filter(name -> name.contains(query));
+    }
+
+    /**
+     * Get the distinct grams of up to GRAM_LENGTH characters in a name
+     * @param name the name to split
+     * @return the grams of the name
+     */
+    private static Set<String> grams(String name) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i < name.length(); i++) {
+            for (int len = 1; len <= GRAM_LENGTH
+                    && i + len <= name.length(); len++) {
+                grams.add(name.substring(i, i + len));
+            }
+        }
+        return grams;
+    }
+}
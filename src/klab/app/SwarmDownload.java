@@ -0,0 +1,429 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SwarmDownload class which downloads one file from every host that
+ * advertised it at once. The file is split into chunks that are fetched
+ * with range requests and written into their place in a preallocated
+ * file. Each host has a worker taking chunks from a shared queue; once the
+ * queue is empty, idle workers also fetch chunks that have been in flight
+ * too long, and whichever copy finishes first completes the chunk.
+ * Workers use pooled persistent connections and pipeline their requests;
+ * hosts that only take one-shot requests are sent one range per
+ * connection.
+ */
+public class SwarmDownload {
+    /**
+     * A host that advertised a file in a response
+     */
+    public static final class Source {
+        /**
+         * the download host
+         */
+        private final String host;
+        /**
+         * the download port
+         */
+        private final int port;
+        /**
+         * the file ID on the host as 8 hex digits
+         */
+        private final String fileID;
+        /**
+         * the file size advertised by the host
+         */
+        private final long size;
+
+        /**
+         * constructor for the Source class
+         * @param host the download host
+         * @param port the download port
+         * @param fileID the file ID on the host as 8 hex digits
+         * @param size the file size advertised by the host
+         */
+        public Source(String host, int port, String fileID, long size) {
+            this.host = host;
+            this.port = port;
+            this.fileID = fileID;
+            this.size = size;
+        }
+
+        /**
+         * Get the file size advertised by the host
+         * @return the file size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns whether two sources name the same file on the same host
+         * @param o the object to compare to
+         * @return true if the sources are the same
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Source source)) {
+                return false;
+            }
+            return port == source.port && size == source.size
+                    && host.equals(source.host)
+                    && fileID.equals(source.fileID);
+        }
+
+        /**
+         * Returns the hashcode of the source
+         * @return the hashcode
+         */
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, fileID, size);
+        }
+
+        /**
+         * Returns the host, port and file ID of the source
+         * @return String representation
+         */
+        @Override
+        public String toString() {
+            return host + ":" + port + " " + fileID;
+        }
+    }
+
+    /**
+     * One range of the file
+     */
+    private static final class Chunk {
+        /**
+         * the first byte of the chunk
+         */
+        private final long offset;
+        /**
+         * the number of bytes in the chunk
+         */
+        private final long length;
+        /**
+         * set once any copy of the chunk has been written
+         */
+        private final AtomicBoolean done = new AtomicBoolean();
+        /**
+         * set once a second worker has been sent after the chunk
+         */
+        private final AtomicBoolean duplicated = new AtomicBoolean();
+        /**
+         * when the chunk was last handed to a worker, in nanoseconds
+         */
+        private volatile long started;
+
+        /**
+         * constructor for the Chunk class
+         * @param offset the first byte of the chunk
+         * @param length the number of bytes in the chunk
+         */
+        Chunk(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * bytes in each chunk, set with -Dklab.swarm.chunk
+     */
+    private static final long CHUNK_SIZE =
+            Math.max(1, Long.getLong("klab.swarm.chunk", 1 << 20));
+    /**
+     * milliseconds after which an idle worker also fetches a chunk that
+     * is still in flight, set with -Dklab.swarm.slow
+     */
+    private static final long SLOW_CHUNK_MS =
+            Math.max(1, Long.getLong("klab.swarm.slow", 5000));
+    /**
+     * most chunk requests a worker has outstanding on its connection, set
+     * with -Dklab.swarm.pipeline
+     */
+    private static final int PIPELINE_DEPTH =
+            Math.max(1, Integer.getInteger("klab.swarm.pipeline", 2));
+    /**
+     * how long an idle worker waits before looking for slow chunks again
+     */
+    private static final long IDLE_WAIT_MS = 50;
+    /**
+     * suffix of the preallocated file chunks are written into
+     */
+    static final String SWARM_SUFFIX = ".swarm";
+
+    /**
+     * the hosts to download from
+     */
+    private final List<Source> sources;
+    /**
+     * the size of the file
+     */
+    private final long size;
+    /**
+     * where to save the file
+     */
+    private final Path target;
+    /**
+     * every chunk of the file
+     */
+    private final List<Chunk> chunks = new ArrayList<>();
+    /**
+     * chunks not yet handed to a worker, or handed back after a failure
+     */
+    private final Queue<Chunk> pending = new ConcurrentLinkedQueue<>();
+    /**
+     * number of chunks not yet written
+     */
+    private final AtomicInteger remaining = new AtomicInteger();
+    /**
+     * number of workers still running
+     */
+    private final AtomicInteger workers = new AtomicInteger();
+
+    /**
+     * constructor for the SwarmDownload class
+     * @param sources the hosts advertising the file, all with the same size
+     * @param target where to save the file
+     */
+    public SwarmDownload(List<Source> sources, Path target) {
+        this.sources = List.copyOf(sources);
+        this.size = sources.getFirst().getSize();
+        this.target = target;
+        for (long offset = 0; offset < size; offset += CHUNK_SIZE) {
+            Chunk chunk = new Chunk(offset,
+                    Math.min(CHUNK_SIZE, size - offset));
+            chunks.add(chunk);
+            pending.add(chunk);
+        }
+        remaining.set(chunks.size());
+    }
+
+    /**
+     * Download the file from every source and move it into place
+     * @param transfer the download to record progress in
+     * @return the number of bytes in the file
+     * @throws IOException if the file cannot be written or every source
+     *                     failed before the file was complete
+     */
+    public long download(DownloadManager.Transfer transfer)
+            throws IOException {
+        transfer.setSize(size);
+        Path part = target.resolveSibling(target.getFileName()
+                + SWARM_SUFFIX);
+        boolean complete = false;
+        try (FileChannel file = FileChannel.open(part,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (size > 0) {
+                file.write(ByteBuffer.allocate(1), size - 1);
+            }
+            workers.set(sources.size());
+            List<Future<?>> running = new ArrayList<>();
+            try (ExecutorService service =
+                         Node.newWorkerService(sources.size())) {
+                for (Source source : sources) {
+                    running.add(service.submit(() ->
+                            work(source, file, transfer)));
+                }
+                for (Future<?> f : running) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Swarm download interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Swarm worker failed: "
+                        + e.getCause().getMessage(), e.getCause());
+            }
+            if (remaining.get() > 0) {
+                throw new IOException("Every source failed with "
+                        + remaining.get() + " of " + chunks.size()
+                        + " chunks missing");
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(part);
+            }
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        return size;
+    }
+
+    /**
+     * Fetch chunks from one source until every chunk is written or the
+     * source fails. Requests for the next chunks are sent before the
+     * current one is read, so the source is never idle between chunks.
+     * @param source the source to fetch from
+     * @param file the preallocated file to write chunks into
+     * @param transfer the download to record progress in
+     */
+    private void work(Source source, FileChannel file,
+                      DownloadManager.Transfer transfer) {
+        Logger logger = Logger.getLogger("Node.Log");
+        Deque<Chunk> inFlight = new ArrayDeque<>();
+        DownloadConnection connection = null;
+        try {
+            connection = DownloadClient.POOL.acquire(source.host,
+                    source.port);
+            if (connection == null) {
+                Chunk chunk;
+                while ((chunk = nextChunk()) != null) {
+                    inFlight.add(chunk);
+                    DownloadClient.downloadRange(source.host, source.port,
+                            source.fileID, chunk.offset, chunk.length, size,
+                            file);
+                    inFlight.remove();
+                    finish(chunk, transfer);
+                }
+                return;
+            }
+            while (true) {
+                while (inFlight.size() < PIPELINE_DEPTH) {
+                    Chunk chunk = inFlight.isEmpty() ? nextChunk()
+                                                     : nextPending();
+                    if (chunk == null) {
+                        break;
+                    }
+                    connection.send(source.fileID + " " + chunk.offset
+                            + " " + chunk.length);
+                    inFlight.add(chunk);
+                }
+                Chunk chunk = inFlight.poll();
+                if (chunk == null) {
+                    break;
+                }
+                receive(connection, source, chunk, file);
+                finish(chunk, transfer);
+            }
+            DownloadClient.POOL.release(connection);
+            connection = null;
+        } catch (IOException e) {
+            logger.log(Level.INFO, "Dropping swarm source "
+                    + source + ": " + e.getMessage(), e);
+            for (Chunk chunk : inFlight) {
+                if (!chunk.done.get()) {
+                    chunk.duplicated.set(false);
+                    pending.add(chunk);
+                }
+            }
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+            workers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Read the reply for a chunk into its place in the file
+     * @param connection the connection the chunk was requested on
+     * @param source the source the chunk was requested from
+     * @param chunk the chunk
+     * @param file the preallocated file to write the chunk into
+     * @throws IOException if the source reports an error or a different
+     *                     size, or the connection fails
+     */
+    private void receive(DownloadConnection connection, Source source,
+                         Chunk chunk, FileChannel file) throws IOException {
+        long count = connection.readReply();
+        if (connection.getFileSize() != size || count != chunk.length) {
+            throw new IOException("Host " + source
+                    + " has a different file size: "
+                    + connection.getFileSize());
+        }
+        connection.readBody(file, chunk.offset, n -> { });
+    }
+
+    /**
+     * Record a chunk as written unless another copy of it already was
+     * @param chunk the chunk
+     * @param transfer the download to record progress in
+     */
+    private void finish(Chunk chunk, DownloadManager.Transfer transfer) {
+        if (chunk.done.compareAndSet(false, true)) {
+            remaining.decrementAndGet();
+            transfer.addReceived(chunk.length);
+        }
+    }
+
+    /**
+     * Get a chunk no worker has been handed yet, without waiting
+     * @return the chunk to fetch, or null if none is pending
+     */
+    private Chunk nextPending() {
+        Chunk chunk;
+        while ((chunk = pending.poll()) != null) {
+            if (!chunk.done.get()) {
+                chunk.started = System.nanoTime();
+                return chunk;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the next chunk for a worker: a pending chunk if there is one,
+     * otherwise a chunk that has been in flight too long
+     * @return the chunk to fetch, or null once every chunk is written or
+     *         this is the only worker left with nothing to fetch
+     */
+    private Chunk nextChunk() {
+        while (remaining.get() > 0) {
+            Chunk chunk = nextPending();
+            if (chunk != null) {
+                return chunk;
+            }
+            long now = System.nanoTime();
+            for (Chunk slow : chunks) {
+                if (!slow.done.get() && slow.started != 0
+                        && (now - slow.started) / 1_000_000 > SLOW_CHUNK_MS
+                        && slow.duplicated.compareAndSet(false, true)) {
+                    return slow;
+                }
+            }
+            if (workers.get() == 1 && pending.isEmpty()) {
+                //Every other worker has stopped and nothing is left
+                //that this worker could fetch
+                return null;
+            }
+            try {
+                Thread.sleep(IDLE_WAIT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app.test;
+
+import klab.app.DownloadRunner;
+import klab.app.Node;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the request lines of the download protocol: the original
+ * file ID request, ranges, and the persistent connection mode
+ */
+public class DownloadRequestTest {
+    /**
+     * contents of the shared test file
+     */
+    byte[] contents = new byte[100];
+    /**
+     * directory holding the shared test file
+     */
+    Path directory;
+    /**
+     * file ID of the shared test file as 8 hex digits
+     */
+    String id;
+
+    @BeforeEach
+    void share() throws IOException {
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) i;
+        }
+        directory = Files.createTempDirectory("klab");
+        Files.write(directory.resolve("data.bin"), contents);
+        id = String.format("%08X", Node.getFileIds().add("data.bin"));
+    }
+
+    /**
+     * Send request lines to a DownloadRunner and collect everything it
+     * sends back until it closes the connection
+     * @param requests the request lines, each ending in a newline
+     * @return the reply bytes
+     * @throws IOException if the connection fails
+     */
+    byte[] exchange(String requests) throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1,
+                InetAddress.getLoopbackAddress());
+             Socket client = new Socket(server.getInetAddress(),
+                     server.getLocalPort())) {
+            Socket accepted = server.accept();
+            new Thread(new DownloadRunner(accepted, directory.toString(),
+                    null)).start();
+            client.getOutputStream().write(
+                    requests.getBytes(StandardCharsets.US_ASCII));
+            client.shutdownOutput();
+            return client.getInputStream().readAllBytes();
+        }
+    }
+    byte[] reply(String status, int from, int to) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(status.getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(Arrays.copyOfRange(contents, from, to));
+        return out.toByteArray();
+    }
+    String text(byte[] reply) {
+        return new String(reply, StandardCharsets.US_ASCII);
+    }
+    @Test
+    void originalRequest() throws IOException {
+        assertArrayEquals(reply("OK\n\n", 0, 100), exchange(id + "\n"));
+    }
+    @Test
+    void range() throws IOException {
+        assertArrayEquals(reply("OK 100\n\n", 10, 15), exchange(id + " 10 5\n"));
+        assertArrayEquals(reply("OK 100\n\n", 90, 100), exchange(id + " 90\n"));
+        assertArrayEquals(reply("OK 100\n\n", 95, 100), exchange(id + " 95 50\n"));
+        assertArrayEquals(reply("OK 100\n\n", 0, 0), exchange(id + " 100\n"));
+    }
+    @Test
+    void offsetPastEnd() throws IOException {
+        assertEquals("ERROR Bad range (101)", text(exchange(id + " 101\n")));
+    }
+    @Test
+    void badRequest() throws IOException {
+        for (String bad : new String[] { id + " ten", id + " -1", id + " 1 -1", id + " 1 2 3",
+                                         "1234567", "XYZXYZXY", "" }) {
+            assertEquals("ERROR Bad request", text(exchange(bad + "\n")), bad);
+        }
+    }
+    @Test
+    void unknownID() throws IOException {
+        String unknown = id.equals("00000000") ? "00000001" : "00000000";
+        assertEquals("ERROR ID (" + unknown + ") not found", text(exchange(unknown + "\n")));
+    }
+    @Test
+    void persistent() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.writeBytes("PERSIST OK\n".getBytes(StandardCharsets.US_ASCII));
+        expected.writeBytes(reply("OK 4 100\n", 0, 4));
+        expected.writeBytes(reply("OK 2 100\n", 98, 100));
+        expected.writeBytes("ERROR Bad range (200)\n".getBytes(StandardCharsets.US_ASCII));
+        expected.writeBytes("ERROR Bad request\n".getBytes(StandardCharsets.US_ASCII));
+        expected.writeBytes(reply("OK 100 100\n", 0, 100));
+        assertArrayEquals(expected.toByteArray(),
+                exchange("PERSIST\n" + id + " 0 4\n" + id + " 98\n" + id + " 200\n" + id + " x\n" + id + "\n"));
+    }
+}
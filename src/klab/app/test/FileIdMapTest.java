@@ -0,0 +1,128 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app.test;
+
+import klab.app.FileIdMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the open addressing FileIdMap, including deletions from the
+ * middle of a probe run that must shift later entries back
+ */
+public class FileIdMapTest {
+    /**
+     * Names that all have the same String hash code, so they share one
+     * probe run in the name table
+     * @param count number of names, a power of two
+     * @return the colliding names
+     */
+    List<String> colliding(int count) {
+        List<String> names = new ArrayList<>();
+        names.add("");
+        while (names.size() < count) {
+            List<String> longer = new ArrayList<>();
+            for (String n : names) {
+                longer.add(n + "Aa");
+                longer.add(n + "BB");
+            }
+            names = longer;
+        }
+        return names;
+    }
+    void assertMapped(FileIdMap map, List<String> names, List<Long> ids) {
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(ids.get(i), map.getID(names.get(i)), names.get(i));
+            assertEquals(names.get(i), map.getName(ids.get(i)), names.get(i));
+        }
+    }
+    @Test
+    void addIsStable() {
+        FileIdMap map = new FileIdMap();
+        long id = map.add("readme.txt");
+        assertEquals(id, map.add("readme.txt"));
+        assertTrue(id >= 0 && id <= 0xFFFFFFFFL);
+        assertEquals(id, map.getID("readme.txt"));
+        assertEquals("readme.txt", map.getName(id));
+        assertEquals(1, map.size());
+    }
+    @Test
+    void unknown() {
+        FileIdMap map = new FileIdMap();
+        map.add("a.txt");
+        map.remove("b.txt");
+        assertEquals(FileIdMap.NO_ID, map.getID("b.txt"));
+        assertNull(map.getName(map.getID("a.txt") ^ 1));
+        assertEquals(1, map.size());
+    }
+    @Test
+    void removeFromCollidingRun() {
+        List<String> names = colliding(32);
+        assertEquals(1, names.stream().map(String::hashCode).distinct().count());
+        FileIdMap map = new FileIdMap();
+        List<Long> ids = new ArrayList<>();
+        for (String n : names) {
+            ids.add(map.add(n));
+        }
+        assertEquals(names.size(), new HashSet<>(ids).size());
+        List<String> kept = new ArrayList<>();
+        List<Long> keptIds = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            //Remove the head of the run, then every third name after it
+            if (i % 3 == 0) {
+                map.remove(names.get(i));
+                assertEquals(FileIdMap.NO_ID, map.getID(names.get(i)));
+                assertNull(map.getName(ids.get(i)));
+            }
+            else {
+                kept.add(names.get(i));
+                keptIds.add(ids.get(i));
+            }
+        }
+        assertEquals(kept.size(), map.size());
+        assertMapped(map, kept, keptIds);
+        for (int i = 0; i < names.size(); i += 3) {
+            kept.add(names.get(i));
+            keptIds.add(map.add(names.get(i)));
+        }
+        assertEquals(names.size(), map.size());
+        assertMapped(map, kept, keptIds);
+    }
+    @Test
+    void removeHalfOfManyAcrossResizes() {
+        FileIdMap map = new FileIdMap();
+        List<String> names = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            names.add("file" + i + ".txt");
+            ids.add(map.add(names.get(i)));
+        }
+        List<String> kept = new ArrayList<>();
+        List<Long> keptIds = new ArrayList<>();
+        Set<Long> removed = new HashSet<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (i % 2 == 1) {
+                map.remove(names.get(i));
+                removed.add(ids.get(i));
+            }
+            else {
+                kept.add(names.get(i));
+                keptIds.add(ids.get(i));
+            }
+        }
+        assertEquals(kept.size(), map.size());
+        assertMapped(map, kept, keptIds);
+        for (long id : removed) {
+            assertNull(map.getName(id));
+        }
+    }
+}
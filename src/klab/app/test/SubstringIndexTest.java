@@ -0,0 +1,83 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.app.test;
+
+import klab.app.SubstringIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the SubstringIndex answers queries the same way as calling
+ * contains on every name
+ */
+public class SubstringIndexTest {
+    List<String> names = List.of("a", "aa", "aaa", "aaaa", "abc", "abcabc", "bca", "cab",
+            "report.txt", "Report.TXT", "photo_2024.jpg", "x", "", "mississippi", "ssi");
+    List<String> queries = List.of("", "a", "b", "z", ".", "aa", "bc", "ss", "t.", "aaa", "abc", "ssi",
+            "aaaa", "aaaaa", "abca", "cabc", "issip", "ississ", "report", "txt", "TXT", ".jpg",
+            "photo_2024.jpg", "photo_2024.jpgx", "mississippi!");
+    SubstringIndex index(List<String> contents) {
+        SubstringIndex index = new SubstringIndex();
+        contents.forEach(index::add);
+        return index;
+    }
+    Set<String> bruteForce(List<String> contents, String query) {
+        return contents.stream().filter(n -> n.contains(query)).collect(Collectors.toCollection(TreeSet::new));
+    }
+    void assertMatchesBruteForce(SubstringIndex index, List<String> contents) {
+        for (String q : queries) {
+            assertEquals(bruteForce(contents, q), index.stream(q).collect(Collectors.toCollection(TreeSet::new)), q);
+        }
+    }
+    @Test
+    void matchesContains() {
+        assertMatchesBruteForce(index(names), names);
+    }
+    @Test
+    void queryLongerThanAnyName() {
+        SubstringIndex index = index(names);
+        assertEquals(0, index.stream("x".repeat(50)).count());
+        assertEquals(0, index.stream("mississippimississippi").count());
+    }
+    @Test
+    void duplicateAdd() {
+        SubstringIndex index = index(names);
+        index.add("aaa");
+        assertEquals(1, index.stream("aaa").filter("aaa"::equals).count());
+        assertMatchesBruteForce(index, names);
+    }
+    @Test
+    void removed() {
+        SubstringIndex index = index(names);
+        List<String> left = new ArrayList<>(names);
+        for (String gone : List.of("aaa", "abcabc", "mississippi", "")) {
+            index.remove(gone);
+            left.remove(gone);
+            assertMatchesBruteForce(index, left);
+        }
+        index.remove("never added");
+        assertMatchesBruteForce(index, left);
+    }
+    @Test
+    void renamed() {
+        SubstringIndex index = index(names);
+        List<String> left = new ArrayList<>(names);
+        index.remove("report.txt");
+        index.add("summary.txt");
+        left.remove("report.txt");
+        left.add("summary.txt");
+        assertMatchesBruteForce(index, left);
+        assertEquals(Set.of("summary.txt"), index.stream("mary").collect(Collectors.toSet()));
+        assertEquals(Set.of(), index.stream("report").collect(Collectors.toSet()));
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Immutable, already-serialized form of a message. A frame is encoded once
+ * and can then be written to any number of output sinks without encoding
+ * the message again. Frames can also be read raw from an input source so
+ * that messages this node only relays never need a full decode.
+ */
+public final class Frame {
+    /**
+     * offset of the TTL within the header
+     */
+    private static final int TTL_OFFSET = Message.MESSAGE_TYPE_LENGTH
+            + Message.MSG_ID_LENGTH;
+    /**
+     * offset of the routing service within the header
+     */
+    private static final int ROUTING_OFFSET = TTL_OFFSET
+            + Message.TTL_LENGTH;
+    /**
+     * encoded message header
+     */
+    private final byte[] header;
+    /**
+     * encoded message payload
+     */
+    private final byte[] payload;
+    /**
+     * the message the frame was encoded from, or null if the frame was
+     * read raw and has not been decoded
+     */
+    private final Message message;
+
+    /**
+     * Constructs a frame from its encoded parts
+     * @param header encoded header
+     * @param payload encoded payload
+     * @param message the message the frame was encoded from
+     */
+    Frame(byte[] header, byte[] payload, Message message) {
+        this.header = header;
+        this.payload = payload;
+        this.message = message;
+    }
+
+    /**
+     * Encodes the given message into a frame
+     * @param message message to encode
+     * @return frame holding the encoded message
+     * @throws IOException if message is null or cannot be encoded
+     */
+    public static Frame of(Message message) throws IOException {
+        if(message == null){
+            throw new IOException("Message was null");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(message.getEncodedSize());
+        message.encodeTo(buf);
+        byte[] encoded = buf.array();
+        return new Frame(Arrays.copyOf(encoded, Message.HEADER_LENGTH),
+                Arrays.copyOfRange(encoded, Message.HEADER_LENGTH,
+                        encoded.length),
+                message);
+    }
+
+    /**
+     * Reads a single raw frame from the given input source. Only the header
+     * is parsed and validated; the payload is kept as opaque bytes.
+     * @param in input source
+     * @return frame holding the raw message bytes
+     * @throws IOException if in is null or an I/O problem occurs
+     * @throws BadAttributeValueException if the header fails validation
+     */
+    public static Frame read(MessageInput in) throws IOException,
+                                            BadAttributeValueException {
+        if(in == null){
+            throw new IOException("Input sink cannot be null");
+        }
+        byte[] header = in.readNBytes(Message.HEADER_LENGTH);
+        int payloadLen = Message.checkHeader(header);
+        return new Frame(header, in.readNBytes(payloadLen), null);
+    }
+
+    /**
+     * Writes the frame to the given output sink and flushes it
+     * @param out output sink
+     * @throws IOException if out is null or an I/O problem occurs
+     */
+    public void writeTo(MessageOutput out) throws IOException {
+        write(out);
+        out.flush();
+    }
+
+    /**
+     * Writes the frame to the given output sink and ends it as a message,
+     * leaving the output's flush policy to decide when it is sent, so
+     * several frames can be sent with a single flush
+     * @param out output sink
+     * @throws IOException if out is null or an I/O problem occurs
+     */
+    public void write(MessageOutput out) throws IOException {
+        Objects.requireNonNull(out, "MessageOutput was null");
+        out.writeBytes(header);
+        out.writeBytes(payload);
+        out.endMessage();
+    }
+
+    /**
+     * Get read-only buffers over the encoded header and payload, for use
+     * with gathering channel writes
+     * @return new buffers positioned at the start of the frame
+     */
+    public ByteBuffer[] toBuffers() {
+        return new ByteBuffer[]{ByteBuffer.wrap(header).asReadOnlyBuffer(),
+                ByteBuffer.wrap(payload).asReadOnlyBuffer()};
+    }
+
+    /**
+     * Get the message the frame was encoded from
+     * @return the encoded message, or null if the frame was read raw
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Fully decodes the framed message. Frames built from a message return
+     * that message without decoding.
+     * @return the framed message
+     * @throws IOException if the payload is truncated
+     * @throws BadAttributeValueException if any parsed value fails validation
+     */
+    public Message decode() throws IOException, BadAttributeValueException {
+        if(message != null){
+            return message;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size());
+        buf.put(header).put(payload).flip();
+        return Message.decodeFrom(buf);
+    }
+
+    /**
+     * Creates a copy of this frame carrying a different TTL. Only the header
+     * is copied; the payload bytes are shared with this frame.
+     * @param ttl new TTL
+     * @return frame with the new TTL
+     * @throws BadAttributeValueException if ttl is invalid
+     */
+    public Frame withTTL(int ttl) throws BadAttributeValueException {
+        Message.checkTTL(ttl);
+        byte[] newHeader = header.clone();
+        newHeader[TTL_OFFSET] = (byte) ttl;
+        return new Frame(newHeader, payload, null);
+    }
+
+    /**
+     * Get the message ID carried in the frame header
+     * @return copy of the message ID
+     */
+    public byte[] getID() {
+        return Arrays.copyOfRange(header, Message.MESSAGE_TYPE_LENGTH,
+                TTL_OFFSET);
+    }
+
+    /**
+     * Check whether the frame holds a search
+     * @return true if the framed message is a search
+     */
+    public boolean isSearch() {
+        return (header[0] & 0xFF) == Message.SEARCH_TYPE;
+    }
+
+    /**
+     * Check whether the frame holds a response
+     * @return true if the framed message is a response
+     */
+    public boolean isResponse() {
+        return (header[0] & 0xFF) == Message.RESPONSE_TYPE;
+    }
+
+    /**
+     * Check whether the frame holds a depth first message
+     * @return true if the framed message is routed DEPTHFIRST
+     */
+    public boolean isDepthFirst() {
+        return (header[ROUTING_OFFSET] & 0xFF)
+                == RoutingService.DEPTHFIRST.getCode();
+    }
+
+    /**
+     * Get the TTL carried in the frame header
+     * @return TTL of the framed message
+     */
+    public int getTTL() {
+        return header[TTL_OFFSET] & 0xFF;
+    }
+
+    /**
+     * Get the number of bytes the frame occupies on the wire
+     * @return header length plus payload length
+     */
+    public int size() {
+        return header.length + payload.length;
+    }
+
+    /**
+     * Returns the framed message's string form, or a header summary for
+     * frames that were read raw
+     * @return String representation
+     */
+    @Override
+    public String toString() {
+        if(message != null){
+            return message.toString();
+        }
+        StringBuilder formatted = new StringBuilder();
+        formatted.append(isSearch() ? "Search frame: ID="
+                                    : "Response frame: ID=");
+        for(byte b : getID()){
+            formatted.append(String.format("%02X", b));
+        }
+        formatted.append(" TTL=");
+        formatted.append(getTTL());
+        formatted.append(" Size=");
+        formatted.append(size());
+        return formatted.toString();
+    }
+}
@@ -8,6 +8,8 @@ package klab.serialization;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Objects;
@@ -73,6 +75,12 @@ public abstract class Message {
      * Maximum payload length
      */
     static final int MAX_PAYLOAD_LENGTH = 65535;
+    /**
+     * length of the fixed message header preceding the payload
+     */
+    public static final int HEADER_LENGTH = MESSAGE_TYPE_LENGTH
+            + MSG_ID_LENGTH + TTL_LENGTH + ROUTING_SERVICE_LENGTH
+            + PAYLOAD_VAR_LENGTH;
     /**
      * message ID
      */
@@ -134,6 +142,66 @@ public abstract class Message {
         }
     }
 
+    /**
+     * Validate every field of a message header. Encoding, decoding and
+     * reading raw frames all check headers with this routine.
+     * @param messageType message type
+     * @param msgID message ID
+     * @param ttl message TTL
+     * @param routingService message routing service
+     * @param payloadLen payload length
+     * @throws BadAttributeValueException if any header field is invalid
+     */
+    static void checkHeader(int messageType, byte[] msgID, int ttl,
+                            RoutingService routingService, int payloadLen)
+                                            throws BadAttributeValueException {
+        if(messageType != SEARCH_TYPE && messageType != RESPONSE_TYPE){
+            throw new BadAttributeValueException("Invalid message type",
+                    "messageType");
+        }
+        checkMessageID(msgID);
+        checkTTL(ttl);
+        checkRoutingService(routingService);
+        if(payloadLen < MIN_PAYLOAD_LENGTH ||
+                payloadLen > MAX_PAYLOAD_LENGTH){
+            throw new BadAttributeValueException(
+                    "Invalid payload length", "payloadLen");
+        }
+    }
+
+    /**
+     * Validate an encoded message header
+     * @param header encoded header
+     * @return the payload length carried in the header
+     * @throws BadAttributeValueException if the header fails validation
+     */
+    static int checkHeader(byte[] header) throws BadAttributeValueException {
+        ByteBuffer in = ByteBuffer.wrap(header);
+        int messageType = (int) getUnsignedInt(in, MESSAGE_TYPE_LENGTH);
+        byte[] msgID = new byte[MSG_ID_LENGTH];
+        in.get(msgID);
+        int ttl = (int) getUnsignedInt(in, TTL_LENGTH);
+        int routingCode = (int) getUnsignedInt(in, ROUTING_SERVICE_LENGTH);
+        int payloadLen = (int) getUnsignedInt(in, PAYLOAD_VAR_LENGTH);
+        checkHeader(messageType, msgID, ttl,
+                RoutingService.getRoutingService(routingCode), payloadLen);
+        return payloadLen;
+    }
+
+    /**
+     * Validate the header this message would be encoded with
+     * @throws IOException if any header field is invalid
+     */
+    private void checkEncodedHeader() throws IOException {
+        try{
+            checkHeader(getMessageType(), msgID, ttl, routingService,
+                    getPayloadSize());
+        }
+        catch (BadAttributeValueException e){
+            throw new IOException("Invalid message header", e);
+        }
+    }
+
     /**
      * Constructs base message with given values
      * @param msgID message ID
@@ -149,7 +217,9 @@ public abstract class Message {
     }
 
     /**
-     * Encode message to given output sink
+     * Encode message to given output sink. The header and payload are
+     * written without flushing, then the end of the message is reported
+     * so the output's flush policy decides when it is sent.
      * @param out output sink
      * @throws IOException if I/O problem or out is null
      */
@@ -157,6 +227,7 @@ public abstract class Message {
         if(out == null){
             throw new IOException("Message was null");
         }
+        checkEncodedHeader();
         try{
             out.writeUnsignedInt(this.getMessageType(),MESSAGE_TYPE_LENGTH);
             out.writeBytes(msgID);
@@ -164,12 +235,53 @@ public abstract class Message {
             out.writeUnsignedInt(routingService.getCode(),
                                     ROUTING_SERVICE_LENGTH);
             out.writeUnsignedInt(getPayloadSize(), PAYLOAD_VAR_LENGTH);
+            encodePayload(out);
+            out.endMessage();
         }
         catch (IOException e){
             throw new IOException("Error occurred");
         }
     }
 
+    /**
+     * Write the payload of the message to given output sink without
+     * flushing it
+     * @param out output sink
+     * @throws IOException if an I/O problem occurs
+     */
+    abstract void encodePayload(MessageOutput out) throws IOException;
+
+    /**
+     * Encode message into given buffer starting at its current position.
+     * The buffer may be heap or direct; on return its position is just
+     * past the encoded message.
+     * @param out buffer to encode into
+     * @throws IOException if out is null, has too little room remaining,
+     *                     or the header is invalid
+     */
+    public void encodeTo(ByteBuffer out) throws IOException {
+        if(out == null){
+            throw new IOException("Buffer was null");
+        }
+        checkEncodedHeader();
+        if(out.remaining() < getEncodedSize()){
+            throw new IOException("Insufficient buffer space");
+        }
+        putUnsignedInt(out, this.getMessageType(), MESSAGE_TYPE_LENGTH);
+        out.put(msgID);
+        putUnsignedInt(out, ttl, TTL_LENGTH);
+        putUnsignedInt(out, routingService.getCode(), ROUTING_SERVICE_LENGTH);
+        putUnsignedInt(out, getPayloadSize(), PAYLOAD_VAR_LENGTH);
+    }
+
+    /**
+     * Get the number of bytes this message occupies on the wire
+     * @return header length plus payload size
+     */
+    public int getEncodedSize(){
+        return HEADER_LENGTH + getPayloadSize();
+    }
+
     /**
      * Deserializes message from input source
      * @param in deserialization input source
@@ -183,33 +295,13 @@ public abstract class Message {
             throw new IOException("Input sink cannot be null");
         }
         try{
-            int payloadLen = -1;
             int messageType = in.readOnce();
-            if((messageType != SEARCH_TYPE) &&
-                    messageType != RESPONSE_TYPE){
-                throw new BadAttributeValueException("Invalid message type",
-                        "messageType");
-            }
-
-            byte[] msgID = new byte[MSG_ID_LENGTH];
-            msgID = in.readNBytes(MSG_ID_LENGTH);
-
-
+            byte[] msgID = in.readNBytes(MSG_ID_LENGTH);
             int ttl = (int) in.readUnsignedInt(TTL_LENGTH);
-
             RoutingService routingService = RoutingService.getRoutingService(
                             (int) in.readUnsignedInt(ROUTING_SERVICE_LENGTH));
-            checkMessageID(msgID);
-            checkTTL(ttl);
-            checkRoutingService(routingService);
-
-            payloadLen = (int) in.readUnsignedInt(PAYLOAD_VAR_LENGTH);
-            if (payloadLen < MIN_PAYLOAD_LENGTH ||
-                    payloadLen > MAX_PAYLOAD_LENGTH){
-
-                throw new BadAttributeValueException(
-                        "Invalid payload length", "payloadLen");
-            }
+            int payloadLen = (int) in.readUnsignedInt(PAYLOAD_VAR_LENGTH);
+            checkHeader(messageType, msgID, ttl, routingService, payloadLen);
             if(messageType == SEARCH_TYPE){
                 byte[] searchStringbuffer = new byte[payloadLen];
                 searchStringbuffer = in.readNBytes(payloadLen);
@@ -259,6 +351,100 @@ public abstract class Message {
         return null;
     }
 
+    /**
+     * Deserializes message from buffer starting at its current position.
+     * On return the buffer's position is just past the decoded message.
+     * @param in buffer to decode from
+     * @return a specific message resulting from deserialization
+     * @throws IOException if in is null or holds too few bytes
+     * @throws BadAttributeValueException if any parsed value fails validation
+     */
+    public static Message decodeFrom(ByteBuffer in) throws IOException,
+                                            BadAttributeValueException {
+        if(in == null){
+            throw new IOException("Input buffer cannot be null");
+        }
+        try{
+            int messageType = (int) getUnsignedInt(in, MESSAGE_TYPE_LENGTH);
+            byte[] msgID = new byte[MSG_ID_LENGTH];
+            in.get(msgID);
+            int ttl = (int) getUnsignedInt(in, TTL_LENGTH);
+            RoutingService routingService = RoutingService.getRoutingService(
+                            (int) getUnsignedInt(in, ROUTING_SERVICE_LENGTH));
+            int payloadLen = (int) getUnsignedInt(in, PAYLOAD_VAR_LENGTH);
+            checkHeader(messageType, msgID, ttl, routingService, payloadLen);
+            if(messageType == SEARCH_TYPE){
+                byte[] searchStringbuffer = new byte[payloadLen];
+                in.get(searchStringbuffer);
+                String searchString = new String(
+                                    searchStringbuffer,
+                                    StandardCharsets.US_ASCII);
+                return new Search(msgID, ttl, routingService, searchString);
+            }
+
+            int matches = (int) getUnsignedInt(in, MATCH_LENGTH);
+            int port = (int) getUnsignedInt(in, PORT_LENGTH);
+            byte[] ipAddress = new byte[IP_ADDRESS_LENGTH];
+            in.get(ipAddress);
+            InetSocketAddress responseHost;
+            try{
+                responseHost = new InetSocketAddress(
+                                InetAddress.getByAddress(ipAddress),
+                                port);
+            }
+            catch(IllegalArgumentException|SecurityException e){
+                throw new BadAttributeValueException(
+                        "Invalid response host",
+                        "responseHost",
+                        e);
+            }
+
+            Response response = new Response
+                                (msgID,ttl,routingService,responseHost);
+            for(int x = 0; x < matches; x++){
+                response.addResult(Result.decodeFrom(in));
+            }
+
+            if(payloadLen > response.getPayloadSize()){
+                throw new BadAttributeValueException(
+                            "payload Size too long", "payload length");
+            }
+            return response;
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Incomplete message", e);
+        }
+    }
+
+    /**
+     * writes an unsigned integer into a buffer in network byte order
+     * regardless of the buffer's configured byte order
+     * @param out buffer to write into
+     * @param number the unsigned integer to be written
+     * @param length the number of bytes to write
+     */
+    static void putUnsignedInt(ByteBuffer out, long number, int length){
+        for (int i = (length - 1) * 8; i >= 0; i -= 8) {
+            out.put((byte) (number >>> i));
+        }
+    }
+
+    /**
+     * reads an unsigned integer in network byte order from a buffer
+     * regardless of the buffer's configured byte order
+     * @param in buffer to read from
+     * @param length the number of bytes to read
+     * @return the unsigned integer value of the bytes read
+     * @throws BufferUnderflowException if fewer than length bytes remain
+     */
+    static long getUnsignedInt(ByteBuffer in, int length){
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            result = (result << 8) | (in.get() & 0xFF);
+        }
+        return result;
+    }
+
     /**
      * Message: ID=ID TTL=ttl Routing=routing
      * represented as a 30-character hex string (2 chars per byte) For example
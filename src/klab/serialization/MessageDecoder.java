@@ -0,0 +1,122 @@
+/**
+ * Author:      Alex DeVries
+ * Assignment:  Program 3
+ * Class:       CSI 4321 Data Communications
+ */
+package klab.serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+
+/**
+ * Incremental decoder for a stream of messages that arrives in arbitrary
+ * chunks. Bytes are copied straight into the header or payload of the
+ * frame being assembled, so the parse state survives between calls and
+ * nothing is buffered twice. Completed frames can be taken raw or as
+ * decoded Search and Response messages. Once a header fails validation
+ * the rest of the stream cannot be framed and the decoder should be
+ * discarded, but frames completed before that header stay queued and
+ * can still be taken.
+ */
+public class MessageDecoder {
+    /**
+     * header of the frame being assembled
+     */
+    private final byte[] header = new byte[Message.HEADER_LENGTH];
+    /**
+     * number of header bytes received so far
+     */
+    private int headerFilled;
+    /**
+     * payload of the frame being assembled, or null while the header is
+     * still incomplete
+     */
+    private byte[] payload;
+    /**
+     * number of payload bytes received so far
+     */
+    private int payloadFilled;
+    /**
+     * frames that have been fully received and not yet taken
+     */
+    private final Queue<Frame> complete = new ArrayDeque<>();
+
+    /**
+     * Consume every remaining byte of a chunk, queueing each frame as it
+     * completes
+     * @param chunk bytes received between its position and limit
+     * @throws IOException if chunk is null
+     * @throws BadAttributeValueException if a header fails validation;
+     *         frames completed earlier in the chunk are still queued
+     */
+    public void feed(ByteBuffer chunk) throws IOException,
+                                        BadAttributeValueException {
+        if(chunk == null){
+            throw new IOException("Input buffer cannot be null");
+        }
+        while(chunk.hasRemaining()){
+            if(payload == null){
+                int n = Math.min(chunk.remaining(),
+                        header.length - headerFilled);
+                chunk.get(header, headerFilled, n);
+                headerFilled += n;
+                if(headerFilled == header.length){
+                    payload = new byte[Message.checkHeader(header)];
+                    payloadFilled = 0;
+                }
+            }
+            else{
+                int n = Math.min(chunk.remaining(),
+                        payload.length - payloadFilled);
+                chunk.get(payload, payloadFilled, n);
+                payloadFilled += n;
+            }
+            if(payload != null && payloadFilled == payload.length){
+                complete.add(new Frame(header.clone(), payload, null));
+                headerFilled = 0;
+                payload = null;
+            }
+        }
+    }
+
+    /**
+     * Consume a chunk of bytes
+     * @param b array holding the chunk
+     * @param off offset of the chunk in b
+     * @param len length of the chunk
+     * @throws IOException if b is null
+     * @throws BadAttributeValueException if a header fails validation
+     */
+    public void feed(byte[] b, int off, int len) throws IOException,
+                                        BadAttributeValueException {
+        if(b == null){
+            throw new IOException("Input array cannot be null");
+        }
+        Objects.checkFromIndexSize(off, len, b.length);
+        feed(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Take the next fully received frame without decoding its payload
+     * @return the next frame, or null if no frame is complete
+     */
+    public Frame nextFrame() {
+        return complete.poll();
+    }
+
+    /**
+     * Take and decode the next fully received message
+     * @return the next Search or Response, or null if no message is
+     *         complete
+     * @throws IOException if the payload is malformed
+     * @throws BadAttributeValueException if any parsed value fails
+     *                                    validation
+     */
+    public Message next() throws IOException, BadAttributeValueException {
+        Frame frame = complete.poll();
+        return frame == null ? null : frame.decode();
+    }
+}
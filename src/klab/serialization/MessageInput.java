@@ -19,6 +19,11 @@ import java.util.Objects;
  */
 public class MessageInput {
     private BufferedInputStream in;
+    /**
+     * scratch space reused by readUnsignedInt so multi-byte fields are
+     * pulled from the buffer in one call instead of one call per byte
+     */
+    private final byte[] scratch = new byte[Long.BYTES];
 
     /**
      * Constructs a new input source from an InputStream
@@ -40,13 +45,18 @@ public class MessageInput {
      * @throws IOException if any read errors occur
      */
     public long readUnsignedInt(int length) throws IOException {
-        long result = 0;
-        for (int i = 0; i < length; i++) {
-            int currByte = in.read();
-            if (currByte == -1) {
+        int currBytesRead = 0;
+        while (currBytesRead < length) {
+            int count = in.read(scratch, currBytesRead,
+                                length - currBytesRead);
+            if (count == -1) {
                 throw new IOException();
             }
-            result = (result << 8) | (currByte & 0xFF);
+            currBytesRead += count;
+        }
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            result = (result << 8) | (scratch[i] & 0xFF);
         }
         return result;
     }
@@ -10,19 +10,79 @@ import java.util.Arrays;
 import java.util.Objects;
 
 /**
- * Serialization output source for only general methods for output
+ * Serialization output source for only general methods for output.
+ * Encoders only write; the end of each message is reported with
+ * endMessage, and the flush policy decides when buffered messages are
+ * sent. By default every message is flushed as it ends; an output can
+ * instead flush once per batch of messages, optionally also once the
+ * oldest buffered message has waited a given time.
  */
 public class MessageOutput {
+    /**
+     * size of the buffer messages are collected in, large enough for a
+     * typical response to leave in one write
+     */
+    private static final int BUFFER_SIZE = 8192;
+
     private BufferedOutputStream out;
     /**
-     * Constructs a new output source from an OutputStream
+     * scratch space reused by writeUnsignedInt to avoid an allocation
+     * per header field
+     */
+    private final byte[] scratch = new byte[Long.BYTES];
+    /**
+     * number of ended messages that triggers a flush
+     */
+    private final int messagesPerFlush;
+    /**
+     * nanoseconds the oldest ended message may wait before a flush, or 0
+     * for no time bound
+     */
+    private final long maxDelayNanos;
+    /**
+     * messages ended since the last flush
+     */
+    private int unflushed = 0;
+    /**
+     * when the oldest unflushed message ended, in nanoseconds
+     */
+    private long firstUnflushed;
+
+    /**
+     * Constructs a new output source from an OutputStream that flushes
+     * every message as it ends
      *
      * @param out byte output sink
      * @throws NullPointerException if out is null
      */
     public MessageOutput(OutputStream out) throws NullPointerException {
+        this(out, 1, 0);
+    }
+
+    /**
+     * Constructs a new output source from an OutputStream that flushes
+     * once per batch of messages. The time bound is checked as each
+     * message ends, so a caller that runs out of messages to send must
+     * flush the last partial batch itself.
+     *
+     * @param out byte output sink
+     * @param messagesPerFlush number of ended messages that triggers a
+     *                         flush
+     * @param maxDelayMillis milliseconds the oldest ended message may wait
+     *                       before a flush, or 0 for no time bound
+     * @throws NullPointerException if out is null
+     * @throws IllegalArgumentException if messagesPerFlush is less than 1
+     *                                  or maxDelayMillis is negative
+     */
+    public MessageOutput(OutputStream out, int messagesPerFlush,
+                         long maxDelayMillis) throws NullPointerException {
         Objects.requireNonNull(out, "OutputStream was null");
-        this.out = new BufferedOutputStream(out,1024);
+        if (messagesPerFlush < 1 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("Invalid flush policy");
+        }
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+        this.messagesPerFlush = messagesPerFlush;
+        this.maxDelayNanos = maxDelayMillis * 1_000_000;
     }
 
 
@@ -34,12 +94,11 @@ public class MessageOutput {
      * @throws IOException if any writing errors occur
      */
     public void writeUnsignedInt(long number, int length) throws IOException {
-        byte[] value = new byte[length];
         for (int i = length-1; i >= 0; i--) {
-            value[i] = (byte)(number & 0xFF);
+            scratch[i] = (byte)(number & 0xFF);
             number >>= 8;
         }
-        out.write(value);
+        out.write(scratch, 0, length);
     }
     /**
      * writes a number of bytes to output stream
@@ -55,11 +114,27 @@ public class MessageOutput {
         }
     }
 
+    /**
+     * Mark the end of an encoded message, flushing if the flush policy
+     * says the buffered messages are due
+     * @throws IOException if an I/O exception occurs
+     */
+    public void endMessage() throws IOException {
+        if (unflushed++ == 0) {
+            firstUnflushed = System.nanoTime();
+        }
+        if (unflushed >= messagesPerFlush || (maxDelayNanos > 0
+                && System.nanoTime() - firstUnflushed >= maxDelayNanos)) {
+            flush();
+        }
+    }
+
     /**
      * flush function for the output stream
      * @throws IOException if an I/O exception occurs
      */
     public void flush() throws IOException {
+        unflushed = 0;
         out.flush();
     }
 }
\ No newline at end of file
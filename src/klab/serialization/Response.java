@@ -7,7 +7,9 @@ package klab.serialization;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 
@@ -24,6 +26,10 @@ public class Response extends Message{
      * ipv4 address length
      */
     static final int ADDRESS_LENGTH = 4;
+    /**
+     * most results a response can hold, the largest match count
+     */
+    public static final int MAX_RESULTS = 255;
 
     /**
      * response host of instance
@@ -33,6 +39,16 @@ public class Response extends Message{
      * list of results
      */
     private List<Result> list;
+    /**
+     * running payload size used to check new results against the size
+     * limit without measuring every result again; encoding always
+     * measures the results as they are now
+     */
+    private int payloadSize = DEFAULT_SIZE;
+    /**
+     * number of results counted in payloadSize
+     */
+    private int counted = 0;
 
     /**
      * check responseHost given to see if its valid
@@ -92,9 +108,9 @@ public class Response extends Message{
         formatted.append(" Host=");
         formatted.append(this.getResponseHost().toString().substring(1));
         formatted.append(" [");
-        for(int i = 0; i < this.getResultList().size(); i++){
-            formatted.append(this.getResultList().get(i).toString());
-            if(i < this.getResultList().size()-1){
+        for(int i = 0; i < list.size(); i++){
+            formatted.append(list.get(i).toString());
+            if(i < list.size()-1){
                 formatted.append(", ");
             }
         }
@@ -133,6 +149,30 @@ public class Response extends Message{
         return list;
     }
 
+    /**
+     * Returns whether a result can be added without making the response
+     * too long to encode
+     * @param result the result to check
+     * @return true if the result fits
+     */
+    public boolean fits(Result result){
+        return list.size() < MAX_RESULTS
+                && runningSize() + result.getSize() <= MAX_PAYLOAD_LENGTH;
+    }
+
+    /**
+     * Get the running payload size, measuring the results again if the
+     * list was changed without going through addResult or addResults
+     * @return the payload size the results had when they were added
+     */
+    private int runningSize(){
+        if(counted != list.size()){
+            payloadSize = getPayloadSize();
+            counted = list.size();
+        }
+        return payloadSize;
+    }
+
     /**
      * Add result to list
      * @param result new result to add to result list
@@ -145,51 +185,99 @@ public class Response extends Message{
             throw new BadAttributeValueException("Result was null", "Result",
                     new NullPointerException());
         }
-        if(list.size() >= 255 ||
-                (getPayloadSize() + result.getSize() > MAX_PAYLOAD_LENGTH)){
+        if(!fits(result)){
             throw new BadAttributeValueException("Result list at max size",
                     "list");
         }
         list.add(result);
+        payloadSize += result.getSize();
+        counted++;
+        return this;
+    }
+
+    /**
+     * Add several results to list, checking every result and the limits
+     * on the result count and payload size in one pass before any is
+     * added
+     * @param results new results to add to result list
+     * @return this Response with the new results added
+     * @throws BadAttributeValueException if results or any result is null,
+     * or the results would make result list too long to encode; no result
+     * is added
+     */
+    public Response addResults(Collection<Result> results)
+            throws BadAttributeValueException{
+        if(results == null){
+            throw new BadAttributeValueException("Results were null",
+                    "Result", new NullPointerException());
+        }
+        int size = runningSize();
+        for(Result r : results){
+            if(r == null){
+                throw new BadAttributeValueException("Result was null",
+                        "Result", new NullPointerException());
+            }
+            size += r.getSize();
+            if(size > MAX_PAYLOAD_LENGTH){
+                throw new BadAttributeValueException(
+                        "Result list at max size", "list");
+            }
+        }
+        if(list.size() + results.size() > MAX_RESULTS){
+            throw new BadAttributeValueException("Result list at max size",
+                    "list");
+        }
+        list.addAll(results);
+        payloadSize = size;
+        counted = list.size();
         return this;
     }
 
     /**
-     * gets the payload size
+     * gets the payload size, measured from the results as they are now so
+     * the encoded length stays right if a result is changed after it is
+     * added
      * @return the payload size
      */
     public int getPayloadSize(){
         int size = DEFAULT_SIZE;
-        for(Result r : this.list){
+        for(Result r : list){
             size += r.getSize();
         }
         return size;
     }
 
     /**
-     * encodes the response in the intended method
+     * encodes the match count, response host and results as the payload
      * @param out output sink
-     * @throws IOException if out is null or a parsing error occurs
+     * @throws IOException if an I/O problem occurs
      */
     @Override
-    public void encode(MessageOutput out) throws IOException {
-        super.encode(out);
-        if(out == null){
-            throw new IOException("Message was null");
-        }
-        try{
-            out.writeUnsignedInt(list.size(), MATCH_LENGTH);
-            out.writeUnsignedInt(getResponseHost().getPort(), PORT_LENGTH);
-            out.writeBytes(getResponseHost().getAddress().getAddress());
-            for(Result r : list){
-                r.encode(out);
-            }
-            out.flush();
+    void encodePayload(MessageOutput out) throws IOException {
+        out.writeUnsignedInt(list.size(), MATCH_LENGTH);
+        out.writeUnsignedInt(getResponseHost().getPort(), PORT_LENGTH);
+        out.writeBytes(getResponseHost().getAddress().getAddress());
+        for(Result r : list){
+            r.write(out);
         }
-        catch (IOException e){
-            throw new IOException("Error occurred");
+    }
+
+    /**
+     * encodes the response into the given buffer
+     * @param out buffer to encode into
+     * @throws IOException if out is null or has too little room remaining
+     */
+    @Override
+    public void encodeTo(ByteBuffer out) throws IOException {
+        super.encodeTo(out);
+        putUnsignedInt(out, list.size(), MATCH_LENGTH);
+        putUnsignedInt(out, getResponseHost().getPort(), PORT_LENGTH);
+        out.put(getResponseHost().getAddress().getAddress());
+        for(Result r : list){
+            r.encodeTo(out);
         }
     }
+
     /**
      * Return the message type code (from protocol)
      * @return message type code (from protocol)
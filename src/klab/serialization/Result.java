@@ -6,6 +6,8 @@
 package klab.serialization;
 
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Objects;
@@ -18,6 +20,8 @@ public class Result {
     final static int FILE_SIZE_LENGTH = 4;
     final static int MIN_FILE_SIZE = 0;
     final static long MAX_FILE_SIZE = 4294967295L;
+    //terminator written after the file name
+    private final static byte[] NEWLINE = {'\n'};
 
     //File ID of the given result
     private byte[] fileID;
@@ -102,10 +106,11 @@ public class Result {
             fileID = new byte[FILE_ID_SIZE];
             fileID = in.readNBytes(FILE_ID_SIZE);
             fileSize = in.readUnsignedInt(FILE_SIZE_LENGTH);
-            fileName = "";
+            StringBuilder name = new StringBuilder();
             while(((x = in.readOnce()) > -1) && ((char)x != '\n')) {
-                fileName += (char) x;
+                name.append((char) x);
             }
+            fileName = name.toString();
             if (fileName.isEmpty() || x == -1){
                 throw new IOException();
             }
@@ -122,7 +127,44 @@ public class Result {
     }
 
     /**
-     * Serialize to given output sink
+     * Deserializes a Result from given buffer starting at its current position
+     *
+     * @param in buffer to parse
+     * @return the decoded result
+     * @throws IOException if in is null or holds too few bytes
+     * @throws BadAttributeValueException if any parsed value fails validation
+     */
+    public static Result decodeFrom(ByteBuffer in) throws IOException,
+            BadAttributeValueException{
+        if(in == null){
+            throw new IOException("Input buffer cannot be null");
+        }
+        try{
+            byte[] fileID = new byte[FILE_ID_SIZE];
+            in.get(fileID);
+            long fileSize = Message.getUnsignedInt(in, FILE_SIZE_LENGTH);
+            int start = in.position();
+            int end = start;
+            while(end < in.limit() && in.get(end) != '\n'){
+                end++;
+            }
+            if(end == start || end == in.limit()){
+                throw new IOException();
+            }
+            byte[] name = new byte[end - start];
+            in.get(name);
+            in.get();
+            return new Result(fileID, fileSize,
+                    new String(name, StandardCharsets.US_ASCII));
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Serialize to given output sink as a unit of its own, ending it so
+     * the output's flush policy can send it
      *
      * @param out output sink to serialize to
      * @throws IOException if out is null or an I/O problem occurs
@@ -132,17 +174,44 @@ public class Result {
             throw new IOException("Message was null");
         }
         try{
-            out.writeBytes(fileID);
-            out.writeUnsignedInt(fileSize,FILE_SIZE_LENGTH);
-            out.writeBytes(fileName.getBytes(StandardCharsets.US_ASCII));
-            out.writeBytes("\n".getBytes(StandardCharsets.US_ASCII));
-            out.flush();
+            write(out);
+            out.endMessage();
         }
         catch (IOException e){
             throw new IOException("Error occurred");
         }
     }
 
+    /**
+     * Write the result to given output sink as part of a larger message,
+     * without ending or flushing it
+     *
+     * @param out output sink to write to
+     * @throws IOException if an I/O problem occurs
+     */
+    void write(MessageOutput out) throws IOException {
+        out.writeBytes(fileID);
+        out.writeUnsignedInt(fileSize,FILE_SIZE_LENGTH);
+        out.writeBytes(fileName.getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(NEWLINE);
+    }
+
+    /**
+     * Serialize into given buffer
+     *
+     * @param out buffer to serialize into
+     * @throws IOException if out is null
+     */
+    public void encodeTo(ByteBuffer out) throws IOException {
+        if(out == null){
+            throw new IOException("Buffer was null");
+        }
+        out.put(fileID);
+        Message.putUnsignedInt(out, fileSize, FILE_SIZE_LENGTH);
+        out.put(fileName.getBytes(StandardCharsets.US_ASCII));
+        out.put((byte) '\n');
+    }
+
     /**
      * Returns a String representation
      *
@@ -6,6 +6,7 @@
 package klab.serialization;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
@@ -105,24 +106,26 @@ public class Search extends Message{
     }
 
     /**
-     * encodes the search in the intended method
+     * encodes the search string as the payload
      * @param out output sink
-     * @throws IOException if out is null or a parsing error has occurred
+     * @throws IOException if an I/O problem occurs
      */
     @Override
-    public void encode(MessageOutput out) throws IOException {
-        super.encode(out);
-        if(out == null){
-            throw new IOException("Message was null");
-        }
-        try{
-            out.writeBytes(searchString.getBytes(StandardCharsets.US_ASCII));
-            out.flush();
-        }
-        catch (IOException e){
-            throw new IOException("Error occurred");
-        }
+    void encodePayload(MessageOutput out) throws IOException {
+        out.writeBytes(searchString.getBytes(StandardCharsets.US_ASCII));
     }
+
+    /**
+     * encodes the search into the given buffer
+     * @param out buffer to encode into
+     * @throws IOException if out is null or has too little room remaining
+     */
+    @Override
+    public void encodeTo(ByteBuffer out) throws IOException {
+        super.encodeTo(out);
+        out.put(searchString.getBytes(StandardCharsets.US_ASCII));
+    }
+
     /**
      * Return the message type code (from protocol)
      * @return message type code (from protocol)
@@ -14,9 +14,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
@@ -515,4 +518,368 @@ public class MessageTest {
 //                    () -> assertEquals("TESTING", finalR.getResultList().getFirst().getFileName()));
         }
     }
+
+    @Nested
+    class ByteBufferTesting{
+        byte[] enc = new byte[] { 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 50, 3, 0, 20, 127,0,0,1,
+                1, 2, 3, 4, 0, 0, 0, 56, 84, 69, 83, 84, 73, 78, 71, 10,
+                -1, -1, -1, -1, 0, 0, 0, 23, 'f','u','n','n','y', 10,
+                100, 23, 10, 36, 0, 0, 12, 47, 'o', 'u', 'c', 'h', 10};
+        @Test
+        void decodeMatchesStream() throws IOException, BadAttributeValueException {
+            Message fromStream = Message.decode(new MessageInput(new ByteArrayInputStream(enc)));
+            ByteBuffer buf = ByteBuffer.wrap(enc);
+            Message fromBuffer = Message.decodeFrom(buf);
+            assertEquals(fromStream, fromBuffer);
+            assertFalse(buf.hasRemaining());
+        }
+        @Test
+        void encodeMatchesStream() throws IOException, BadAttributeValueException {
+            Search s = new Search(new byte[] {15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1}, 255, RoutingService.DEPTHFIRST, "bob");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            s.encode(new MessageOutput(out));
+            ByteBuffer buf = ByteBuffer.allocateDirect(s.getEncodedSize()).order(ByteOrder.LITTLE_ENDIAN);
+            s.encodeTo(buf);
+            buf.flip();
+            byte[] actual = new byte[buf.remaining()];
+            buf.get(actual);
+            assertArrayEquals(out.toByteArray(), actual);
+        }
+        @Test
+        void encodeDecodeResponse() throws IOException, BadAttributeValueException {
+            Response r = (Response) Message.decodeFrom(ByteBuffer.wrap(enc));
+            ByteBuffer buf = ByteBuffer.allocate(r.getEncodedSize());
+            r.encodeTo(buf);
+            assertArrayEquals(enc, buf.array());
+        }
+        @Test
+        void encodeTooSmall() throws BadAttributeValueException {
+            Search s = new Search(new byte[15], 3, RoutingService.BREADTHFIRST, "bob");
+            assertThrows(IOException.class, () -> s.encodeTo(ByteBuffer.allocate(5)));
+        }
+        @Test
+        void decodeTruncated() {
+            assertThrows(IOException.class, () -> Message.decodeFrom(ByteBuffer.wrap(enc, 0, enc.length - 3)));
+        }
+        @Test
+        void decodeInvalidType() {
+            byte[] bad = Arrays.copyOf(enc, enc.length);
+            bad[0] = 19;
+            assertThrows(BadAttributeValueException.class, () -> Message.decodeFrom(ByteBuffer.wrap(bad)));
+        }
+        @Test
+        void invalidHeaderEveryPath() {
+            for (int[] field : new int[][] { {0, 19}, {0, 0}, {17, 7} }) {
+                byte[] bad = Arrays.copyOf(enc, enc.length);
+                bad[field[0]] = (byte) field[1];
+                assertAll(() -> assertThrows(BadAttributeValueException.class, () -> Message.decode(new MessageInput(new ByteArrayInputStream(bad)))),
+                        () -> assertThrows(BadAttributeValueException.class, () -> Message.decodeFrom(ByteBuffer.wrap(bad))),
+                        () -> assertThrows(BadAttributeValueException.class, () -> Frame.read(new MessageInput(new ByteArrayInputStream(bad)))),
+                        () -> assertThrows(BadAttributeValueException.class, () -> new MessageDecoder().feed(ByteBuffer.wrap(bad))));
+            }
+        }
+    }
+
+    @Nested
+    class FrameTesting{
+        @Test
+        void writeToMatchesEncode() throws IOException, BadAttributeValueException {
+            Response r = new Response(new byte[] {15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1}, 50,
+                    RoutingService.BREADTHFIRST, new InetSocketAddress("2.2.2.2", 13));
+            r.addResult(new Result(new byte[] {1, 2, 3, 4}, 56, "o"));
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            r.encode(new MessageOutput(expected));
+            Frame frame = Frame.of(r);
+            ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+            ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+            frame.writeTo(new MessageOutput(out1));
+            frame.writeTo(new MessageOutput(out2));
+            assertAll(() -> assertArrayEquals(expected.toByteArray(), out1.toByteArray()),
+                    () -> assertArrayEquals(expected.toByteArray(), out2.toByteArray()),
+                    () -> assertEquals(50, frame.getTTL()),
+                    () -> assertEquals(expected.size(), frame.size()),
+                    () -> assertSame(r, frame.getMessage()));
+        }
+        @Test
+        void ofNull() {
+            assertThrows(IOException.class, () -> Frame.of(null));
+        }
+        @Test
+        void readRelayDecode() throws IOException, BadAttributeValueException {
+            byte[] enc = new byte[] {2, 15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 50, 0, 0, 17, 1, 0, 13, 2, 2, 2, 2, 1, 2, 3, 4, 0, 0, 0, 56, 111, 10};
+            Frame frame = Frame.read(new MessageInput(new ByteArrayInputStream(enc)));
+            Frame relay = frame.withTTL(49);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            relay.writeTo(new MessageOutput(out));
+            byte[] expected = Arrays.copyOf(enc, enc.length);
+            expected[16] = 49;
+            Message decoded = relay.decode();
+            assertAll(() -> assertTrue(frame.isResponse()),
+                    () -> assertFalse(frame.isSearch()),
+                    () -> assertNull(frame.getMessage()),
+                    () -> assertArrayEquals(Arrays.copyOfRange(enc, 1, 16), frame.getID()),
+                    () -> assertEquals(50, frame.getTTL()),
+                    () -> assertArrayEquals(expected, out.toByteArray()),
+                    () -> assertEquals(49, decoded.getTTL()),
+                    () -> assertEquals(Message.decode(new MessageInput(new ByteArrayInputStream(expected))), decoded));
+        }
+        @Test
+        void readInvalidType() {
+            byte[] enc = new byte[] { 19, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 3, 'b', 'o', 'b' };
+            assertThrows(BadAttributeValueException.class, () -> Frame.read(new MessageInput(new ByteArrayInputStream(enc))));
+        }
+        @Test
+        void readTruncated() {
+            byte[] enc = new byte[] { 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 5, 'b', 'o', 'b' };
+            assertThrows(IOException.class, () -> Frame.read(new MessageInput(new ByteArrayInputStream(enc))));
+        }
+        @Test
+        void readRoutingService() throws IOException, BadAttributeValueException {
+            byte[] enc = new byte[] { 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 1, 0, 3, 'b', 'o', 'b' };
+            Frame walk = Frame.read(new MessageInput(new ByteArrayInputStream(enc)));
+            enc[17] = 0;
+            Frame flood = Frame.read(new MessageInput(new ByteArrayInputStream(enc)));
+            assertAll(() -> assertTrue(walk.isDepthFirst()),
+                    () -> assertFalse(flood.isDepthFirst()),
+                    () -> assertTrue(walk.withTTL(2).isDepthFirst()));
+        }
+        @Test
+        void withInvalidTTL() throws IOException, BadAttributeValueException {
+            byte[] enc = new byte[] { 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 'b', 'o', 'b' };
+            Frame frame = Frame.read(new MessageInput(new ByteArrayInputStream(enc)));
+            assertThrows(BadAttributeValueException.class, () -> frame.withTTL(frame.getTTL() - 1));
+        }
+    }
+
+    @Nested
+    class MessageDecoderTesting{
+        byte[] search = new byte[] { 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 3, 'b', 'o', 'b' };
+        byte[] response = new byte[] {2, 15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 50, 0, 0, 17, 1, 0, 13, 2, 2, 2, 2, 1, 2, 3, 4, 0, 0, 0, 56, 111, 10};
+        byte[] empty = new byte[] { 1, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 1, 0, 0 };
+        byte[] stream() {
+            byte[] all = Arrays.copyOf(search, search.length + response.length + empty.length);
+            System.arraycopy(response, 0, all, search.length, response.length);
+            System.arraycopy(empty, 0, all, search.length + response.length, empty.length);
+            return all;
+        }
+        @Test
+        void byteAtATime() throws IOException, BadAttributeValueException {
+            MessageDecoder decoder = new MessageDecoder();
+            byte[] all = stream();
+            for (int i = 0; i < search.length - 1; i++) {
+                decoder.feed(all, i, 1);
+                assertNull(decoder.next());
+            }
+            for (int i = search.length - 1; i < all.length; i++) {
+                decoder.feed(all, i, 1);
+            }
+            assertEquals(Message.decode(new MessageInput(new ByteArrayInputStream(search))), decoder.next());
+            assertEquals(Message.decode(new MessageInput(new ByteArrayInputStream(response))), decoder.next());
+            Search last = (Search) decoder.next();
+            assertEquals("", last.getSearchString());
+            assertEquals(RoutingService.DEPTHFIRST, last.getRoutingService());
+            assertNull(decoder.next());
+        }
+        @Test
+        void partial() throws IOException, BadAttributeValueException {
+            MessageDecoder decoder = new MessageDecoder();
+            ByteBuffer buf = ByteBuffer.wrap(search, 0, search.length - 1);
+            decoder.feed(buf);
+            assertFalse(buf.hasRemaining());
+            assertNull(decoder.nextFrame());
+            decoder.feed(search, search.length - 1, 1);
+            assertEquals("bob", ((Search) decoder.next()).getSearchString());
+        }
+        @Test
+        void backToBack() throws IOException, BadAttributeValueException {
+            byte[] enc = new byte[] { 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 3, 'b', 'o', 'b',
+                                      1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 4, 0, 0, 1, 'x' };
+            MessageDecoder decoder = new MessageDecoder();
+            decoder.feed(ByteBuffer.wrap(enc));
+            Search first = (Search) decoder.next();
+            Search second = (Search) decoder.next();
+            assertEquals("bob", first.getSearchString());
+            assertEquals("x", second.getSearchString());
+            assertEquals(4, second.getTTL());
+            assertNull(decoder.next());
+        }
+        @Test
+        void splitAcrossHeader() throws IOException, BadAttributeValueException {
+            MessageDecoder decoder = new MessageDecoder();
+            byte[] all = stream();
+            decoder.feed(ByteBuffer.wrap(all, 0, search.length + 7));
+            assertNotNull(decoder.nextFrame());
+            assertNull(decoder.nextFrame());
+            decoder.feed(ByteBuffer.wrap(all, search.length + 7, all.length - search.length - 7));
+            Frame frame = decoder.nextFrame();
+            assertTrue(frame.isResponse());
+            assertEquals(50, frame.getTTL());
+            assertEquals(response.length, frame.size());
+            assertTrue(decoder.nextFrame().isSearch());
+        }
+        @Test
+        void invalidType() {
+            MessageDecoder decoder = new MessageDecoder();
+            byte[] bad = Arrays.copyOf(search, search.length);
+            bad[0] = 19;
+            assertThrows(BadAttributeValueException.class, () -> decoder.feed(bad, 0, bad.length));
+        }
+        @Test
+        void framesBeforeInvalidHeader() throws IOException, BadAttributeValueException {
+            MessageDecoder decoder = new MessageDecoder();
+            byte[] all = stream();
+            all[search.length + response.length] = 19;
+            assertThrows(BadAttributeValueException.class, () -> decoder.feed(ByteBuffer.wrap(all)));
+            assertTrue(decoder.nextFrame().isSearch());
+            assertTrue(decoder.nextFrame().isResponse());
+            assertNull(decoder.nextFrame());
+        }
+        @Test
+        void feedNull() {
+            MessageDecoder decoder = new MessageDecoder();
+            assertThrows(IOException.class, () -> decoder.feed(null));
+        }
+    }
+
+    @Nested
+    class MessageOutputTesting{
+        byte[] search = new byte[] { 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 3, 'b', 'o', 'b' };
+        class CountingStream extends ByteArrayOutputStream {
+            int writes = 0;
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                writes++;
+                super.write(b, off, len);
+            }
+        }
+        @Test
+        void flushPerMessage() throws IOException, BadAttributeValueException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MessageOutput output = new MessageOutput(out);
+            Message.decode(new MessageInput(new ByteArrayInputStream(search))).encode(output);
+            assertArrayEquals(search, out.toByteArray());
+        }
+        @Test
+        void flushPerBatch() throws IOException, BadAttributeValueException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MessageOutput output = new MessageOutput(out, 2, 0);
+            Message message = Message.decode(new MessageInput(new ByteArrayInputStream(search)));
+            message.encode(output);
+            assertEquals(0, out.size());
+            message.encode(output);
+            assertEquals(2 * search.length, out.size());
+        }
+        @Test
+        void flushAfterDelay() throws IOException, BadAttributeValueException, InterruptedException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MessageOutput output = new MessageOutput(out, 100, 1);
+            Message message = Message.decode(new MessageInput(new ByteArrayInputStream(search)));
+            message.encode(output);
+            assertEquals(0, out.size());
+            Thread.sleep(5);
+            message.encode(output);
+            assertEquals(2 * search.length, out.size());
+        }
+        @Test
+        void responseInOneWrite() throws IOException, BadAttributeValueException {
+            Response r = new Response(new byte[15], 3, RoutingService.BREADTHFIRST,
+                    new InetSocketAddress(InetAddress.getByName("1.2.3.4"), 5));
+            for (int i = 0; i < 200; i++) {
+                r.addResult(new Result(new byte[] { 1, 2, 3, 4 }, i, "f" + i));
+            }
+            CountingStream out = new CountingStream();
+            r.encode(new MessageOutput(out));
+            assertEquals(1, out.writes);
+            assertEquals(r, Message.decode(new MessageInput(new ByteArrayInputStream(out.toByteArray()))));
+        }
+        @Test
+        void invalidPolicy() {
+            assertThrows(IllegalArgumentException.class, () -> new MessageOutput(new ByteArrayOutputStream(), 0, 0));
+            assertThrows(IllegalArgumentException.class, () -> new MessageOutput(new ByteArrayOutputStream(), 1, -1));
+        }
+    }
+
+    @Nested
+    class ResponseBuilderTesting{
+        Response response() throws BadAttributeValueException, IOException {
+            return new Response(new byte[15], 3, RoutingService.BREADTHFIRST,
+                    new InetSocketAddress(InetAddress.getByName("1.2.3.4"), 5));
+        }
+        Result result(int i) throws BadAttributeValueException {
+            return new Result(new byte[] { 1, 2, 3, 4 }, i, "f" + i);
+        }
+        @Test
+        void runningPayloadSize() throws BadAttributeValueException, IOException {
+            Response r = response();
+            assertEquals(7, r.getPayloadSize());
+            r.addResult(result(1));
+            r.addResults(List.of(result(2), result(33)));
+            assertEquals(7 + 11 + 11 + 12, r.getPayloadSize());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            r.encode(new MessageOutput(out));
+            assertEquals(r, Message.decode(new MessageInput(new ByteArrayInputStream(out.toByteArray()))));
+        }
+        @Test
+        void bulkCountLimit() throws BadAttributeValueException, IOException {
+            Response r = response();
+            ArrayList<Result> results = new ArrayList<>();
+            for (int i = 0; i < Response.MAX_RESULTS; i++) {
+                results.add(result(i));
+            }
+            r.addResults(results);
+            assertEquals(Response.MAX_RESULTS, r.getResultList().size());
+            assertFalse(r.fits(result(0)));
+            assertThrows(BadAttributeValueException.class, () -> r.addResults(List.of(result(0))));
+            assertEquals(Response.MAX_RESULTS, r.getResultList().size());
+        }
+        @Test
+        void bulkSizeLimit() throws BadAttributeValueException, IOException {
+            Response r = response();
+            String name = "a".repeat(30000);
+            Result big = new Result(new byte[] { 1, 2, 3, 4 }, 1, name);
+            ArrayList<Result> results = new ArrayList<>(List.of(big, big, big));
+            assertThrows(BadAttributeValueException.class, () -> r.addResults(results));
+            assertTrue(r.getResultList().isEmpty());
+            assertEquals(7, r.getPayloadSize());
+            r.addResults(results.subList(0, 2));
+            assertFalse(r.fits(big));
+        }
+        @Test
+        void bulkNull() throws BadAttributeValueException, IOException {
+            Response r = response();
+            ArrayList<Result> results = new ArrayList<>();
+            results.add(result(1));
+            results.add(null);
+            assertThrows(BadAttributeValueException.class, () -> r.addResults(results));
+            assertThrows(BadAttributeValueException.class, () -> r.addResults(null));
+            assertTrue(r.getResultList().isEmpty());
+        }
+        @Test
+        void resultChangedAfterAdd() throws BadAttributeValueException, IOException {
+            Response r = response();
+            Result changed = result(1);
+            r.addResult(changed);
+            r.addResult(result(2));
+            changed.setFileName("a_much_longer_file_name.txt");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            r.encode(new MessageOutput(out));
+            byte[] enc = out.toByteArray();
+            assertEquals(enc.length - Message.HEADER_LENGTH, ((enc[18] & 0xFF) << 8) | (enc[19] & 0xFF));
+            assertEquals(r, Message.decode(new MessageInput(new ByteArrayInputStream(enc))));
+            ByteBuffer buf = ByteBuffer.allocate(r.getEncodedSize());
+            r.encodeTo(buf);
+            assertArrayEquals(enc, buf.array());
+        }
+        @Test
+        void resultListChangedDirectly() throws BadAttributeValueException, IOException {
+            Response r = response();
+            r.addResult(result(1));
+            r.getResultList().add(result(2));
+            r.getResultList().remove(0);
+            assertEquals(7 + result(2).getSize(), r.getPayloadSize());
+            String name = "a".repeat(40000);
+            r.getResultList().add(new Result(new byte[] { 1, 2, 3, 4 }, 1, name));
+            assertFalse(r.fits(new Result(new byte[] { 1, 2, 3, 4 }, 1, name)));
+        }
+    }
 }